@@ -0,0 +1,134 @@
+package org.francis.p2p.worksharing.bench;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Checks a synthetic tree search spread over several processes on this host, by running NIOTimeToSolution, or
+ * ShmTimeToSolution, in a child JVM for each node and reading what every node prints. A run passes when every node
+ * reports the tree exhausted and between them their workers expanded every node of the tree exactly once. Work which
+ * was lost or given away twice, or a network which shut down while it still had work, fails the run, as does a network
+ * which never shuts down. The process exits with status 1 if any run failed, so it can be run as a test.
+ *
+ * <pre>
+ * java LoopbackCheck nio|shm nodes workersPerNode [runs branching depth workPerNode]
+ * </pre>
+ * Each nio run uses its own ports from FIRST_PORT up, each shm run a new temporary directory. Termination races are
+ * rare, so several runs are worth making.
+ */
+public class LoopbackCheck {
+
+    private static final int FIRST_PORT = 47000;
+    private static final long RUN_TIMEOUT = 120; // Seconds
+
+    public static void main(String[] args) throws IOException, InterruptedException {
+        if (args.length < 3 || !(args[0].equals("nio") || args[0].equals("shm"))) {
+            System.err.println("usage: LoopbackCheck nio|shm nodes workersPerNode [runs branching depth workPerNode]");
+            System.exit(2);
+        }
+        boolean shm = args[0].equals("shm");
+        int nodes = Integer.parseInt(args[1]);
+        int workersPerNode = Integer.parseInt(args[2]);
+        int runs = args.length > 3 ? Integer.parseInt(args[3]) : 5;
+        int branching = args.length > 4 ? Integer.parseInt(args[4]) : 4;
+        int depth = args.length > 5 ? Integer.parseInt(args[5]) : 8;
+        int workPerNode = args.length > 6 ? Integer.parseInt(args[6]) : 200;
+
+        long nodeCount = SyntheticTreeWorkSharer.nodeCount(branching, depth);
+        long treeChecksum = SyntheticTreeWorkSharer.treeChecksum(branching, depth);
+        int failures = 0;
+        for (int run = 0; run < runs; run++) {
+            File directory = shm ? Files.createTempDirectory("loopback-shm").toFile() : null;
+            String rendezvous = shm ? directory.getPath() : String.valueOf(FIRST_PORT + run * nodes);
+            String[] nodeArgs = { String.valueOf(nodes), String.valueOf(workersPerNode), rendezvous, String.valueOf(branching), String.valueOf(depth), String.valueOf(workPerNode) };
+            String failure = check(shm ? ShmTimeToSolution.class : NIOTimeToSolution.class, nodes, nodeArgs, nodeCount, treeChecksum);
+            if (shm) delete(directory);
+            if (failure != null) failures++;
+            System.out.println("run " + run + (failure == null ? " passed" : " FAILED: " + failure));
+        }
+        System.out.println(failures == 0 ? "All " + runs + " runs passed" : failures + " of " + runs + " runs failed");
+        System.exit(failures == 0 ? 0 : 1);
+    }
+
+    // Returns why the run failed, or null if it passed
+    private static String check(Class<?> main, int nodes, String[] nodeArgs, long nodeCount, long treeChecksum) throws IOException, InterruptedException {
+        Process[] processes = new Process[nodes];
+        File[] outputs = new File[nodes];
+        try {
+            for (int node = 0; node < nodes; node++) {
+                List<String> command = new ArrayList<String>();
+                command.add(new File(new File(System.getProperty("java.home"), "bin"), "java").getPath());
+                command.add("-cp");
+                command.add(System.getProperty("java.class.path"));
+                command.add(main.getName());
+                command.add(String.valueOf(node));
+                for (String arg : nodeArgs) {
+                    command.add(arg);
+                }
+                // Written to a file so a node which prints a lot can't block on a full pipe
+                outputs[node] = File.createTempFile("loopback-node" + node + "-", ".log");
+                processes[node] = new ProcessBuilder(command).redirectErrorStream(true).redirectOutput(outputs[node]).start();
+            }
+            long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(RUN_TIMEOUT);
+            for (int node = 0; node < nodes; node++) {
+                if (!processes[node].waitFor(Math.max(0, deadline - System.nanoTime()), TimeUnit.NANOSECONDS))
+                    return "node " + node + " didn't stop within " + RUN_TIMEOUT + "s";
+                if (processes[node].exitValue() != 0)
+                    return "node " + node + " exited with " + processes[node].exitValue() + "\n" + read(outputs[node]);
+            }
+            long expanded = 0;
+            long checksum = 0;
+            for (int node = 0; node < nodes; node++) {
+                String output = read(outputs[node]);
+                Map<String, String> report = report(output);
+                if (report == null) return "node " + node + " printed no report\n" + output;
+                if (!"false".equals(report.get("result"))) return "node " + node + " had the result " + report.get("result") + " rather than false for an exhausted tree";
+                expanded += Long.parseLong(report.get("expanded"));
+                checksum += Long.parseLong(report.get("checksum"));
+            }
+            if (expanded != nodeCount) return expanded + " nodes were expanded of a tree of " + nodeCount;
+            if (checksum != treeChecksum) return "every node was not expanded exactly once, though " + expanded + " were expanded";
+            return null;
+        } finally {
+            for (int node = 0; node < nodes; node++) {
+                if (processes[node] != null) processes[node].destroy();
+                if (outputs[node] != null) outputs[node].delete();
+            }
+        }
+    }
+
+    private static void delete(File directory) {
+        File[] files = directory.listFiles();
+        if (files != null) {
+            for (File file : files) {
+                file.delete();
+            }
+        }
+        directory.delete();
+    }
+
+    private static String read(File file) throws IOException {
+        return new String(Files.readAllBytes(file.toPath()), Charset.forName("UTF-8"));
+    }
+
+    // The key=value pairs of the line a node prints once it has stopped, or null if it didn't print one
+    private static Map<String, String> report(String output) {
+        for (String line : output.split("\n")) {
+            if (!line.startsWith("node ") || !line.contains(" checksum=")) continue;
+            Map<String, String> report = new HashMap<String, String>();
+            for (String field : line.trim().split(" ")) {
+                int equals = field.indexOf('=');
+                if (equals > 0) report.put(field.substring(0, equals), field.substring(equals + 1));
+            }
+            return report;
+        }
+        return null;
+    }
+}
@@ -0,0 +1,53 @@
+package org.francis.p2p.worksharing.bench;
+
+import java.util.concurrent.TimeUnit;
+
+import org.francis.p2p.worksharing.network.NetworkManager;
+import org.francis.p2p.worksharing.smp.SMPCommunicator;
+import org.francis.p2p.worksharing.smp.SMPMessageManager;
+import org.francis.p2p.worksharing.smp.SMPWorkerId;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * The steady state cost of a call to manageNetwork when the mailbox is empty and the worker has plenty of work. This is
+ * the price every node expansion pays in a busy search.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ManageNetworkBenchmark {
+
+    private NetworkManager manager;
+    private SyntheticTreeWorkSharer workSharer;
+
+    @Setup
+    public void setUp() {
+        SMPWorkerId self = new SMPWorkerId(0);
+        SMPMessageManager messageManager = new SMPMessageManager(new SMPWorkerId[] {self});
+        SMPCommunicator comm = new SMPCommunicator(messageManager, null, null, self);
+        manager = new NetworkManager(comm, 1, 2, null);
+        // A tree far too large to be exhausted, expanded a little so there is always sharable work
+        workSharer = new SyntheticTreeWorkSharer(4, 40, 0, SyntheticTreeWorkSharer.NO_TARGET);
+        workSharer.seedRoot();
+        for (int i = 0; i < 16; i++) {
+            workSharer.expand();
+        }
+    }
+
+    @Benchmark
+    public boolean emptyMailbox() {
+        return manager.manageNetwork(workSharer);
+    }
+}
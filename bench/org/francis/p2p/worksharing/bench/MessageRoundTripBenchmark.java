@@ -0,0 +1,80 @@
+package org.francis.p2p.worksharing.bench;
+
+import java.util.concurrent.TimeUnit;
+
+import org.francis.p2p.worksharing.network.message.NetworkMessage;
+import org.francis.p2p.worksharing.network.message.WorkRequest;
+import org.francis.p2p.worksharing.smp.SMPCommunicator;
+import org.francis.p2p.worksharing.smp.SMPMessageManager;
+import org.francis.p2p.worksharing.smp.SMPWorkerId;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Group;
+import org.openjdk.jmh.annotations.GroupThreads;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * The latency of a WorkRequest from one worker to its neighbour and the WorkResponse back, through SMPCommunicator and
+ * SMPMessageManager.
+ *
+ * singleThreaded drives both ends from one thread and so measures the cost of the path itself. The roundTrip group runs
+ * the requester and the donor on their own threads and includes the hand off between them.
+ */
+@State(Scope.Group)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class MessageRoundTripBenchmark {
+
+    // Timed receives stop either thread hanging when the other one finishes its iteration first
+    private static final long RECEIVE_TIMEOUT = 10;
+
+    private SMPCommunicator requester;
+    private SMPCommunicator donor;
+    private Object sharedWork;
+
+    @Setup
+    public void setUp() {
+        SMPWorkerId requesterId = new SMPWorkerId(0);
+        SMPWorkerId donorId = new SMPWorkerId(1);
+        SMPMessageManager messageManager = new SMPMessageManager(new SMPWorkerId[] {requesterId, donorId});
+        requester = new SMPCommunicator(messageManager, null, donorId, requesterId);
+        donor = new SMPCommunicator(messageManager, requesterId, null, donorId);
+        sharedWork = new Object();
+    }
+
+    @Benchmark
+    public NetworkMessage singleThreaded() {
+        requester.broadcastWorkRequest();
+        WorkRequest request = (WorkRequest) donor.receive(0);
+        donor.sendWorkResponse(request, sharedWork);
+        return requester.receive(0);
+    }
+
+    @Benchmark
+    @Group("roundTrip")
+    @GroupThreads(1)
+    public NetworkMessage requester() {
+        requester.broadcastWorkRequest();
+        return requester.receive(RECEIVE_TIMEOUT);
+    }
+
+    @Benchmark
+    @Group("roundTrip")
+    @GroupThreads(1)
+    public NetworkMessage donor() {
+        NetworkMessage message = donor.receive(RECEIVE_TIMEOUT);
+        if (message != null)
+            donor.sendWorkResponse((WorkRequest) message, sharedWork);
+        return message;
+    }
+}
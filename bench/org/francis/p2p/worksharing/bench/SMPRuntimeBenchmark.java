@@ -0,0 +1,65 @@
+package org.francis.p2p.worksharing.bench;
+
+import java.util.concurrent.TimeUnit;
+
+import org.francis.p2p.worksharing.network.ExpandingWorkSharer;
+import org.francis.p2p.worksharing.smp.SMPRuntime;
+import org.francis.p2p.worksharing.smp.SMPRuntime.ExecutionMode;
+import org.francis.p2p.worksharing.smp.SMPRuntime.ThreadMode;
+import org.francis.p2p.worksharing.smp.WorkSharerFactory;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * End to end time for an SMPRuntime to exhaust a synthetic tree, with the peer to peer protocol or the fork/join fast
+ * path, and with workers on platform or virtual threads. The larger worker counts oversubscribe the cores, which is
+ * what virtual threads are for. VIRTUAL needs a JVM with virtual threads.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 10)
+@Fork(1)
+public class SMPRuntimeBenchmark {
+
+    @Param({"8", "64", "512"})
+    public int workers;
+
+    @Param({"PLATFORM", "VIRTUAL"})
+    public ThreadMode threadMode;
+
+    // Thread mode has no effect on FORK_JOIN
+    @Param({"PEER_TO_PEER", "FORK_JOIN"})
+    public ExecutionMode executionMode;
+
+    @Param({"4"})
+    public int branching;
+
+    @Param({"10"})
+    public int depth;
+
+    @Param({"200"})
+    public int workPerNode;
+
+    @Benchmark
+    public Object timeToSolution() {
+        WorkSharerFactory factory = new WorkSharerFactory() {
+            @Override
+            public ExpandingWorkSharer create(int worker, int workerCount) {
+                SyntheticTreeWorkSharer workSharer = new SyntheticTreeWorkSharer(branching, depth, workPerNode, SyntheticTreeWorkSharer.NO_TARGET);
+                if (worker == 0) workSharer.seedRoot();
+                return workSharer;
+            }
+        };
+        return new SMPRuntime(workers, factory).setThreadMode(threadMode).setExecutionMode(executionMode).start().join().result;
+    }
+}
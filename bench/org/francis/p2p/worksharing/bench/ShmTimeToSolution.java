@@ -0,0 +1,88 @@
+package org.francis.p2p.worksharing.bench;
+
+import java.io.File;
+import java.io.IOException;
+
+import org.francis.p2p.worksharing.network.NetworkManager;
+import org.francis.p2p.worksharing.network.message.ResultMessage;
+import org.francis.p2p.worksharing.shm.ShmCommunicator;
+import org.francis.p2p.worksharing.shm.ShmMessageManager;
+import org.francis.p2p.worksharing.shm.ShmNetwork;
+import org.francis.p2p.worksharing.smp.HypercubeTopology;
+import org.francis.p2p.worksharing.smp.SMPWorkerId;
+
+/**
+ * Runs one node of a synthetic tree search spread over several JVMs on this host which share memory mapped rings in
+ * directory. Start one process per node, each with its own node number and the same remaining arguments, and every
+ * node prints the result, the nodes its workers expanded and the time it took. The directory should be new for each
+ * run. LoopbackCheck shm runs it over several processes and checks what they print.
+ *
+ * <pre>
+ * java ShmTimeToSolution node nodes workersPerNode directory [branching depth workPerNode]
+ * </pre>
+ * The timing includes connecting the nodes, so it is only meaningful for searches that take a good deal longer.
+ */
+public class ShmTimeToSolution {
+
+    private static final long CONNECT_TIMEOUT = 30000;
+    private static final long CLOSE_TIMEOUT = 5000;
+
+    public static void main(String[] args) throws IOException, InterruptedException {
+        int node = Integer.parseInt(args[0]);
+        int nodes = Integer.parseInt(args[1]);
+        int workersPerNode = Integer.parseInt(args[2]);
+        File directory = new File(args[3]);
+        int branching = args.length > 4 ? Integer.parseInt(args[4]) : 4;
+        int depth = args.length > 5 ? Integer.parseInt(args[5]) : 10;
+        int workPerNode = args.length > 6 ? Integer.parseInt(args[6]) : 200;
+
+        long start = System.nanoTime();
+        directory.mkdirs();
+        ShmNetwork network = new ShmNetwork(directory, nodes, workersPerNode);
+        ShmMessageManager messageManager = ShmMessageManager.connect(network, node, CONNECT_TIMEOUT, new SyntheticTreeWorkSharer.Serializer());
+        SMPWorkerId[] localWorkers = messageManager.localWorkers();
+        Thread[] threads = new Thread[localWorkers.length];
+        SyntheticTreeWorkSharer[] workSharers = new SyntheticTreeWorkSharer[localWorkers.length];
+        for (int i = 0; i < localWorkers.length; i++) {
+            ShmCommunicator comm = new ShmCommunicator(messageManager, new HypercubeTopology(), localWorkers[i]);
+            NetworkManager manager = new NetworkManager(comm, network.workerCount(), 2, null);
+            workSharers[i] = new SyntheticTreeWorkSharer(branching, depth, workPerNode, SyntheticTreeWorkSharer.NO_TARGET);
+            if (localWorkers[i].getId() == 0) workSharers[i].seedRoot();
+            threads[i] = new Thread(new SearchLoop(manager, workSharers[i]), "worker-" + localWorkers[i]);
+        }
+        for (Thread thread : threads) {
+            thread.start();
+        }
+        ResultMessage result = messageManager.receiveResult();
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        long elapsed = System.nanoTime() - start;
+        messageManager.close(CLOSE_TIMEOUT);
+        long expanded = 0;
+        long checksum = 0;
+        for (SyntheticTreeWorkSharer workSharer : workSharers) {
+            expanded += workSharer.expandedCount();
+            checksum += workSharer.expandedChecksum();
+        }
+        System.out.println("node " + node + " result=" + result.result + " expanded=" + expanded + " checksum=" + checksum + " time=" + elapsed / 1000000 + "ms");
+    }
+
+    private static class SearchLoop implements Runnable {
+
+        private final NetworkManager manager;
+        private final SyntheticTreeWorkSharer workSharer;
+
+        SearchLoop(NetworkManager manager, SyntheticTreeWorkSharer workSharer) {
+            this.manager = manager;
+            this.workSharer = workSharer;
+        }
+
+        @Override
+        public void run() {
+            while (manager.manageNetwork(workSharer)) {
+                workSharer.expand();
+            }
+        }
+    }
+}
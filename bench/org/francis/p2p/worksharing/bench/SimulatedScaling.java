@@ -0,0 +1,60 @@
+package org.francis.p2p.worksharing.bench;
+
+import org.francis.p2p.worksharing.network.ExpandingWorkSharer;
+import org.francis.p2p.worksharing.network.NetworkManager.HibernationMode;
+import org.francis.p2p.worksharing.network.NetworkManager.TerminationMode;
+import org.francis.p2p.worksharing.sim.Simulation;
+import org.francis.p2p.worksharing.sim.SimulationReport;
+import org.francis.p2p.worksharing.smp.WorkSharerFactory;
+
+/**
+ * Simulates the exhaustive search of a synthetic tree by networks of increasing size, under a virtual clock, and prints
+ * the time to solution, idle fraction and message counts of each. The network doubles in size from one worker up to
+ * maxWorkers.
+ *
+ * <pre>
+ * java SimulatedScaling maxWorkers [branching depth expandNanos latencyNanos terminationMode hibernationMode]
+ * </pre>
+ * The tree should have many more nodes than the largest network has workers, or most of them never get any work.
+ *
+ * Every simulated worker runs on a platform thread of its own, only one at a time, so each message costs a context
+ * switch and a simulation handles roughly fifty thousand messages a second. Starved workers' RING requests visit
+ * every edge of the hypercube, so the messages grow with the square of the network's size, and in practice this runs
+ * to networks of a few thousand workers, not the ten thousand a full study needs. Larger networks need a Simulation
+ * with a virtual thread factory, on a JVM which has them.
+ */
+public class SimulatedScaling {
+
+    public static void main(String[] args) throws InterruptedException {
+        if (args.length < 1) {
+            System.err.println("usage: SimulatedScaling maxWorkers [branching depth expandNanos latencyNanos terminationMode hibernationMode]");
+            System.err.println("Each worker is a platform thread and each message a context switch, about 50k messages a second,");
+            System.err.println("so networks beyond a few thousand workers take very long to simulate.");
+            System.exit(1);
+        }
+        int maxWorkers = Integer.parseInt(args[0]);
+        final int branching = args.length > 1 ? Integer.parseInt(args[1]) : 4;
+        final int depth = args.length > 2 ? Integer.parseInt(args[2]) : 10;
+        long expandTime = args.length > 3 ? Long.parseLong(args[3]) : 1000;
+        long latency = args.length > 4 ? Long.parseLong(args[4]) : 10000;
+        TerminationMode terminationMode = args.length > 5 ? TerminationMode.valueOf(args[5]) : TerminationMode.TOKEN;
+        HibernationMode hibernationMode = args.length > 6 ? HibernationMode.valueOf(args[6]) : HibernationMode.EVENT_DRIVEN;
+
+        long nodes = SyntheticTreeWorkSharer.nodeCount(branching, depth);
+        System.out.println(nodes + " nodes, " + expandTime + "ns each, " + latency + "ns per hop");
+        for (int workers = 1; workers <= maxWorkers; workers *= 2) {
+            long start = System.nanoTime();
+            SimulationReport report = new Simulation(workers, new WorkSharerFactory() {
+                @Override
+                public ExpandingWorkSharer create(int worker, int workerCount) {
+                    // The simulation charges for each expansion, so the tree does no busy work of its own
+                    SyntheticTreeWorkSharer workSharer = new SyntheticTreeWorkSharer(branching, depth, 0, SyntheticTreeWorkSharer.NO_TARGET);
+                    if (worker == 0) workSharer.seedRoot();
+                    return workSharer;
+                }
+            }).setExpandTime(expandTime).setLatency(latency).setTerminationMode(terminationMode).setHibernationMode(hibernationMode).run();
+            double speedup = (double) nodes * expandTime / report.getTimeToSolution();
+            System.out.println(report + ", speed up " + Math.round(speedup * 10) / 10.0 + ", simulated in " + (System.nanoTime() - start) / 1000000 + "ms");
+        }
+    }
+}
@@ -0,0 +1,279 @@
+package org.francis.p2p.worksharing.bench;
+
+import java.io.Serializable;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+import org.francis.p2p.worksharing.network.CheckpointableWorkSharer;
+import org.francis.p2p.worksharing.network.ExpandingWorkSharer;
+import org.francis.p2p.worksharing.network.PrefetchingWorkSharer;
+import org.francis.p2p.worksharing.network.SplittingWorkSharer;
+import org.francis.p2p.worksharing.network.codec.WorkSerializer;
+
+/**
+ * A depth first search over a complete synthetic tree. Every node costs a fixed amount of busy work to expand and the
+ * search is complete when the target leaf is expanded. With no target the whole tree is explored and the network
+ * finishes through exhaustion.
+ *
+ * The open nodes are kept as parallel arrays so that expanding a node does not allocate.
+ */
+public class SyntheticTreeWorkSharer implements ExpandingWorkSharer, CheckpointableWorkSharer, PrefetchingWorkSharer, SplittingWorkSharer {
+
+    public static final long NO_TARGET = -1;
+
+    private final int branching;
+    private final int maxDepth;
+    private final int workPerNode;
+    private final long target;
+    private final long[] subtreeSizes; // Indexed by depth
+    private int[] depths;
+    private long[] indices;
+    private int size;
+    private long expanded;
+    private long checksum; // The sum of the hashes of every node we expanded
+    private boolean complete;
+    private long sink;
+
+    public SyntheticTreeWorkSharer(int branching, int maxDepth, int workPerNode, long target) {
+        this.branching = branching;
+        this.maxDepth = maxDepth;
+        this.workPerNode = workPerNode;
+        this.target = target;
+        this.subtreeSizes = subtreeSizes(branching, maxDepth);
+        this.depths = new int[64];
+        this.indices = new long[64];
+        this.size = 0;
+    }
+
+    public void seedRoot() {
+        push(0, 0);
+    }
+
+    /**
+     * Expands the deepest open node.
+     */
+    @Override
+    public void expand() {
+        if (size == 0) return;
+        size--;
+        int depth = depths[size];
+        long index = indices[size];
+        expanded++;
+        checksum += nodeHash(depth, index);
+        burn(index);
+        if (depth == maxDepth) {
+            if (index == target) complete = true;
+            return;
+        }
+        for (int i = branching - 1; i >= 0; i--) {
+            push(depth + 1, index * branching + i);
+        }
+    }
+
+    private void burn(long seed) {
+        long x = seed + sink;
+        for (int i = 0; i < workPerNode; i++) {
+            x ^= x << 13;
+            x ^= x >>> 7;
+            x ^= x << 17;
+        }
+        sink = x;
+    }
+
+    private void push(int depth, long index) {
+        if (size == depths.length) {
+            depths = Arrays.copyOf(depths, size * 2);
+            indices = Arrays.copyOf(indices, size * 2);
+        }
+        depths[size] = depth;
+        indices[size] = index;
+        size++;
+    }
+
+    public long expandedCount() {
+        return expanded;
+    }
+
+    /**
+     * Summed over every worker of a search which explored the whole tree, this equals treeChecksum only if every node was
+     * expanded exactly once, as far as a 64 bit hash can tell.
+     */
+    public long expandedChecksum() {
+        return checksum;
+    }
+
+    public static long treeChecksum(int branching, int maxDepth) {
+        long checksum = 0;
+        long level = 1;
+        for (int d = 0; d <= maxDepth; d++) {
+            for (long index = 0; index < level; index++) {
+                checksum += nodeHash(d, index);
+            }
+            level *= branching;
+        }
+        return checksum;
+    }
+
+    // A 64 bit mix of the node's depth and its index within its level
+    private static long nodeHash(int depth, long index) {
+        long h = (index + 1) * 0x9E3779B97F4A7C15L + depth;
+        h ^= h >>> 31;
+        h *= 0xBF58476D1CE4E5B9L;
+        return h ^ (h >>> 29);
+    }
+
+    public static long nodeCount(int branching, int maxDepth) {
+        long count = 0;
+        long level = 1;
+        for (int d = 0; d <= maxDepth; d++) {
+            count += level;
+            level *= branching;
+        }
+        return count;
+    }
+
+    // Saturating, the trees used by some benchmarks are far too big to ever explore
+    private static long[] subtreeSizes(int branching, int maxDepth) {
+        long[] sizes = new long[maxDepth + 1];
+        sizes[maxDepth] = 1;
+        for (int d = maxDepth - 1; d >= 0; d--) {
+            long below = sizes[d + 1];
+            sizes[d] = below > (Long.MAX_VALUE - 1) / branching ? Long.MAX_VALUE : 1 + branching * below;
+        }
+        return sizes;
+    }
+
+    /**
+     * Gives away the shallowest half of the open nodes, these are the bottom of the stack.
+     */
+    @Override
+    public Object giveWork() {
+        int given = size / 2;
+        int[] givenDepths = Arrays.copyOfRange(depths, 0, given);
+        long[] givenIndices = Arrays.copyOfRange(indices, 0, given);
+        System.arraycopy(depths, given, depths, 0, size - given);
+        System.arraycopy(indices, given, indices, 0, size - given);
+        size -= given;
+        return new Work(givenDepths, givenIndices);
+    }
+
+    // The open nodes below the top of the stack, which is the node we expand next
+    @Override
+    public int workUnits() {
+        return Math.max(size - 1, 0);
+    }
+
+    @Override
+    public long unitSize(int unit) {
+        return subtreeSizes[depths[unit]];
+    }
+
+    @Override
+    public Object giveWork(int[] units, int count) {
+        int[] givenDepths = new int[count];
+        long[] givenIndices = new long[count];
+        int kept = 0;
+        int given = 0;
+        for (int i = 0; i < size; i++) {
+            if (given < count && units[given] == i) {
+                givenDepths[given] = depths[i];
+                givenIndices[given] = indices[i];
+                given++;
+            } else {
+                depths[kept] = depths[i];
+                indices[kept] = indices[i];
+                kept++;
+            }
+        }
+        size = kept;
+        return new Work(givenDepths, givenIndices);
+    }
+
+    @Override
+    public Object takeRemainingWork() {
+        if (size == 0) return null;
+        Work work = new Work(Arrays.copyOf(depths, size), Arrays.copyOf(indices, size));
+        size = 0;
+        return work;
+    }
+
+    @Override
+    public void receiveWork(Object stack) {
+        Work work = (Work) stack;
+        for (int i = 0; i < work.depths.length; i++) {
+            push(work.depths[i], work.indices[i]);
+        }
+    }
+
+    @Override
+    public int sharableWork() {
+        return size - 1;
+    }
+
+    // The open nodes, each of which may root a large subtree, so this is only a rough guide
+    @Override
+    public int remainingWork() {
+        return size;
+    }
+
+    @Override
+    public boolean needsWork() {
+        return size == 0;
+    }
+
+    @Override
+    public boolean isComplete() {
+        return complete;
+    }
+
+    @Override
+    public Object getSuccessMessage() {
+        return Long.valueOf(target);
+    }
+
+    @Override
+    public Object getFailureMessage() {
+        return "Synthetic tree was empty";
+    }
+
+    public static class Work implements Serializable {
+
+        private static final long serialVersionUID = 4417853092611527304L;
+
+        final int[] depths;
+        final long[] indices;
+
+        Work(int[] depths, long[] indices) {
+            this.depths = depths;
+            this.indices = indices;
+        }
+    }
+
+    /**
+     * Writes Work as its length followed by the depths and indices, straight to and from the transport's buffer.
+     */
+    public static class Serializer implements WorkSerializer {
+
+        @Override
+        public void write(Object work, ByteBuffer out) {
+            Work w = (Work) work;
+            out.putInt(w.depths.length);
+            for (int i = 0; i < w.depths.length; i++) {
+                out.put((byte) w.depths[i]); // The indices of any tree deeper than a byte would overflow a long
+                out.putLong(w.indices[i]);
+            }
+        }
+
+        @Override
+        public Object read(ByteBuffer in) {
+            int length = in.getInt();
+            int[] depths = new int[length];
+            long[] indices = new long[length];
+            for (int i = 0; i < length; i++) {
+                depths[i] = in.get();
+                indices[i] = in.getLong();
+            }
+            return new Work(depths, indices);
+        }
+    }
+}
@@ -0,0 +1,156 @@
+package org.francis.p2p.worksharing.bench;
+
+import java.util.concurrent.TimeUnit;
+
+import org.francis.p2p.worksharing.network.NetworkManager;
+import org.francis.p2p.worksharing.network.NetworkManager.HibernationMode;
+import org.francis.p2p.worksharing.network.NetworkManager.RequestStrategy;
+import org.francis.p2p.worksharing.network.NetworkManager.SplitPolicy;
+import org.francis.p2p.worksharing.network.NetworkManager.TerminationMode;
+import org.francis.p2p.worksharing.network.message.ResultMessage;
+import org.francis.p2p.worksharing.network.threshold.AdaptiveSharingThreshold;
+import org.francis.p2p.worksharing.smp.BinaryTreeTopology;
+import org.francis.p2p.worksharing.smp.ChainTopology;
+import org.francis.p2p.worksharing.smp.HypercubeTopology;
+import org.francis.p2p.worksharing.smp.SMPCommunicator;
+import org.francis.p2p.worksharing.smp.SMPMessageManager;
+import org.francis.p2p.worksharing.smp.SMPWorkerId;
+import org.francis.p2p.worksharing.smp.Topology;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * End to end time for a chain of workers to exhaust, or find the target leaf of, a synthetic tree. Worker 0 starts with
+ * the root and every other worker must get its work through the network.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 10)
+@Fork(1)
+public class TimeToSolutionBenchmark {
+
+    @Param({"1", "2", "4", "8"})
+    public int workers;
+
+    @Param({"4"})
+    public int branching;
+
+    @Param({"10"})
+    public int depth;
+
+    @Param({"200"})
+    public int workPerNode;
+
+    // -1 explores the whole tree, otherwise the index of the leaf to search for
+    @Param({"-1"})
+    public long target;
+
+    @Param({"2"})
+    public int workSharingThreshold;
+
+    // Adapt the threshold, starting from workSharingThreshold, rather than keep it fixed
+    @Param({"false", "true"})
+    public boolean adaptiveThreshold;
+
+    @Param({"RING", "RANDOM_VICTIM"})
+    public RequestStrategy requestStrategy;
+
+    // Only used by RANDOM_VICTIM requests
+    @Param({"4"})
+    public int maxAttempts;
+
+    // links wires each worker to its top and bottom workers, the others name a Topology
+    @Param({"links", "chain", "binaryTree", "hypercube"})
+    public String topology;
+
+    @Param({"TIMED_BACKOFF", "EVENT_DRIVEN"})
+    public HibernationMode hibernationMode;
+
+    @Param({"COUNTING", "TOKEN"})
+    public TerminationMode terminationMode;
+
+    // Zero turns prefetching off
+    @Param({"0", "8"})
+    public int lowWatermark;
+
+    @Param({"DONOR", "HALF", "LARGEST", "FIXED"})
+    public SplitPolicy splitPolicy;
+
+    // Only used by the FIXED split policy
+    @Param({"2"})
+    public int fixedSplit;
+
+    @Benchmark
+    public Object timeToSolution() throws InterruptedException {
+        SMPWorkerId[] ids = new SMPWorkerId[workers];
+        for (int i = 0; i < workers; i++) {
+            ids[i] = new SMPWorkerId(i);
+        }
+        SMPMessageManager messageManager = new SMPMessageManager(ids);
+        Thread[] threads = new Thread[workers];
+        for (int i = 0; i < workers; i++) {
+            SMPCommunicator comm = createCommunicator(messageManager, ids, i);
+            NetworkManager manager = new NetworkManager(comm, workers, workSharingThreshold, null);
+            manager.setHibernationMode(hibernationMode);
+            manager.setTerminationMode(terminationMode);
+            manager.setLowWatermark(lowWatermark);
+            manager.setSplitPolicy(splitPolicy, fixedSplit);
+            if (adaptiveThreshold) manager.setSharingThreshold(new AdaptiveSharingThreshold(workSharingThreshold));
+            SyntheticTreeWorkSharer workSharer = new SyntheticTreeWorkSharer(branching, depth, workPerNode, target);
+            if (i == 0) workSharer.seedRoot();
+            threads[i] = new Thread(new SearchLoop(manager, workSharer), "worker-" + i);
+        }
+        for (Thread thread : threads) {
+            thread.start();
+        }
+        ResultMessage result = messageManager.receiveResult();
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        return result.result;
+    }
+
+    private SMPCommunicator createCommunicator(SMPMessageManager messageManager, SMPWorkerId[] ids, int i) {
+        if (topology.equals("links")) {
+            SMPWorkerId top = i == 0 ? null : ids[i - 1];
+            SMPWorkerId bottom = i == workers - 1 ? null : ids[i + 1];
+            return new SMPCommunicator(messageManager, top, bottom, ids[i], requestStrategy, maxAttempts);
+        }
+        return new SMPCommunicator(messageManager, createTopology(), ids[i], requestStrategy, maxAttempts);
+    }
+
+    private Topology createTopology() {
+        if (topology.equals("chain")) return new ChainTopology();
+        if (topology.equals("binaryTree")) return new BinaryTreeTopology();
+        if (topology.equals("hypercube")) return new HypercubeTopology();
+        throw new IllegalArgumentException("Unknown topology " + topology);
+    }
+
+    private static class SearchLoop implements Runnable {
+
+        private final NetworkManager manager;
+        private final SyntheticTreeWorkSharer workSharer;
+
+        SearchLoop(NetworkManager manager, SyntheticTreeWorkSharer workSharer) {
+            this.manager = manager;
+            this.workSharer = workSharer;
+        }
+
+        @Override
+        public void run() {
+            while (manager.manageNetwork(workSharer)) {
+                workSharer.expand();
+            }
+        }
+    }
+}
@@ -0,0 +1,13 @@
+package org.francis.p2p.worksharing.network;
+
+/**
+ * A WorkSharer whose search can be checkpointed to disk and resumed, possibly by a network of a different size.
+ */
+public interface CheckpointableWorkSharer extends WorkSharer {
+
+    /**
+     * Removes all of this worker's remaining work and returns it in the same form as giveWork, so it can be written with
+     * the network's WorkSerializer and later passed to receiveWork. Returns null if there is no work left.
+     */
+    public abstract Object takeRemainingWork();
+}
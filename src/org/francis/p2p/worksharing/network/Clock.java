@@ -0,0 +1,12 @@
+package org.francis.p2p.worksharing.network;
+
+/**
+ * The time as seen by a NetworkManager, for its hibernation and for the timings it passes to its metrics and sharing
+ * threshold. A SystemClock unless a simulation replaces it with a virtual clock.
+ */
+public interface Clock {
+
+    public abstract long currentTimeMillis();
+
+    public abstract long nanoTime();
+}
@@ -1,8 +1,11 @@
 package org.francis.p2p.worksharing.network;
 
+import org.francis.p2p.worksharing.network.message.Incumbent;
 import org.francis.p2p.worksharing.network.message.NetworkMessage;
 import org.francis.p2p.worksharing.network.message.PropagatableMessage;
 import org.francis.p2p.worksharing.network.message.ResultMessage;
+import org.francis.p2p.worksharing.network.message.SolutionBatch;
+import org.francis.p2p.worksharing.network.message.TerminationToken;
 import org.francis.p2p.worksharing.network.message.WorkRequest;
 
 public interface Communicator {
@@ -11,21 +14,78 @@ public interface Communicator {
 
     public abstract NetworkMessage receive(long timeout);
 
+    /**
+     * Moves up to messages.length waiting messages into messages, in the order they would have been received, without
+     * blocking. Returns how many were moved.
+     */
+    public abstract int receive(NetworkMessage[] messages);
+
     public abstract void sendWorkResponse(WorkRequest request, Object sharedWork);
     
     public abstract void broadcastNetworkIncrease();
     
-    public abstract void broadcastNetworkDecrease();
+    /**
+     * @param checkpointed whether we, or any worker we have heard from, wrote work to a checkpoint
+     */
+    public abstract void broadcastNetworkDecrease(boolean checkpointed);
     
     public abstract void broadcastShutDownNetwork();
     
+    public abstract void broadcastCheckpoint(String directory);
+    
     public abstract void broadcastWorkRequest();
+    
+    public abstract void sendWorkRequest(WorkerId victim);
+    
+    /**
+     * @param requestSequence the sequence of the hungry worker's request which we couldn't serve
+     */
+    public abstract void sendWorkAvailable(WorkerId hungryWorker, int requestSequence);
+
+    /**
+     * Passes the token on to the next worker in a fixed ring of every worker, used by TOKEN termination detection.
+     */
+    public abstract void sendTerminationToken(TerminationToken token);
+
+    /**
+     * True for exactly one worker in the network, the one which starts each round of TOKEN termination detection.
+     */
+    public abstract boolean isTerminationInitiator();
 
     public abstract void propagateMessage(PropagatableMessage msg);
 
     public abstract void sendResult(ResultMessage result);
+
+    /**
+     * Sends a batch of solutions to the solution channel, waiting for room if it is full.
+     */
+    public abstract void sendSolutions(SolutionBatch batch);
+    
+    /**
+     * Makes incumbent the best solution known to every worker which shares our message manager, if it is better than
+     * the one they know of, and sends it on to the rest of the network.
+     */
+    public abstract void publishIncumbent(Incumbent incumbent);
+
+    /**
+     * The best solution we have heard of, or null if we haven't heard of any. Called between every piece of work, so it
+     * is cheap.
+     */
+    public abstract Incumbent bestIncumbent();
     
     public abstract boolean isPoisonWorkRequest(WorkRequest message);
 
+    /**
+     * True for any request we made ourselves, including one passing back through us on its way round which isn't yet
+     * poison.
+     */
+    public abstract boolean isOwnWorkRequest(WorkRequest message);
+
+    /**
+     * True if every message reaches its worker before any message sent, by any worker, after it was received. COUNTING
+     * termination relies on this, TOKEN termination works without it.
+     */
+    public abstract boolean isDeliveryCausal();
+
     public abstract String printSelf();
 }
\ No newline at end of file
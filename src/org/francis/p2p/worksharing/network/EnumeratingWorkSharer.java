@@ -0,0 +1,17 @@
+package org.francis.p2p.worksharing.network;
+
+import java.util.List;
+
+/**
+ * A WorkSharer which finds every solution in its search space, rather than stopping at the first, for a NetworkManager
+ * in the ALL solution mode. The search carries on until the whole network runs out of work, unless isComplete returns
+ * true to stop it early.
+ */
+public interface EnumeratingWorkSharer extends WorkSharer {
+
+    /**
+     * Moves the solutions found since the last call into solutions. Called between every piece of work, so it must be
+     * cheap when there are none.
+     */
+    public abstract void takeSolutions(List<Object> solutions);
+}
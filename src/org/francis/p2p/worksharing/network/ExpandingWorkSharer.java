@@ -0,0 +1,13 @@
+package org.francis.p2p.worksharing.network;
+
+/**
+ * A WorkSharer which can carry on its search by itself, for runtimes which drive the search loop for the user.
+ */
+public interface ExpandingWorkSharer extends WorkSharer {
+
+    /**
+     * Does a small amount of the search on this worker's own work, returning so the network can be managed. Called
+     * only while there is work, the runtime calls NetworkManager.manageNetwork between every expansion.
+     */
+    public abstract void expand();
+}
@@ -1,16 +1,34 @@
 package org.francis.p2p.worksharing.network;
 
-import java.io.BufferedWriter;
 import java.io.File;
-import java.io.FileWriter;
 import java.io.IOException;
-import java.util.Date;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
 
+import javax.management.JMException;
+
+import org.francis.p2p.worksharing.network.checkpoint.CheckpointWriter;
+import org.francis.p2p.worksharing.network.codec.JavaWorkSerializer;
+import org.francis.p2p.worksharing.network.codec.WorkSerializer;
+import org.francis.p2p.worksharing.network.log.NetworkLog;
+import org.francis.p2p.worksharing.network.log.TextNetworkLog;
+import org.francis.p2p.worksharing.network.metrics.WorkerMetrics;
+import org.francis.p2p.worksharing.network.threshold.SharingThreshold;
+import org.francis.p2p.worksharing.network.threshold.StaticSharingThreshold;
+import org.francis.p2p.worksharing.network.message.CheckpointNetwork;
+import org.francis.p2p.worksharing.network.message.Incumbent;
 import org.francis.p2p.worksharing.network.message.NetworkChange;
 import org.francis.p2p.worksharing.network.message.NetworkChange.ChangeType;
 import org.francis.p2p.worksharing.network.message.NetworkMessage;
 import org.francis.p2p.worksharing.network.message.ResultMessage;
 import org.francis.p2p.worksharing.network.message.ShutDownNetwork;
+import org.francis.p2p.worksharing.network.message.SolutionBatch;
+import org.francis.p2p.worksharing.network.message.TerminationToken;
+import org.francis.p2p.worksharing.network.message.WorkAvailable;
 import org.francis.p2p.worksharing.network.message.WorkRequest;
 import org.francis.p2p.worksharing.network.message.WorkResponse;
 
@@ -30,30 +48,146 @@ public class NetworkManager {
         UP, DOWN
     };
 
+    /**
+     * How a worker looks for work. RING sends each request around the chain of workers until one of them can serve it.
+     * RANDOM_VICTIM sends it straight to a randomly chosen worker, which forwards it to another random worker if it
+     * can't serve it, for a bounded number of attempts before it returns to the requester. Only a request which has
+     * been all the way around the chain poisons the requester, so when the random attempts fail the requester falls
+     * back to a RING request before it hibernates. This keeps the NetworkChange counting correct, as a worker never
+     * announces it has run out of work before its request has followed every earlier announcement around the chain.
+     */
+    public enum RequestStrategy {
+        RING, RANDOM_VICTIM
+    };
+
+    /**
+     * How a worker which has run out of work waits for more. TIMED_BACKOFF repeats its work request, waiting twice as
+     * long after each failure up to the maximum hibernation time. EVENT_DRIVEN waits for a WorkAvailable notification
+     * from a worker which saw one of its requests, and only repeats the request if none arrives within the maximum
+     * hibernation time.
+     */
+    public enum HibernationMode {
+        TIMED_BACKOFF, EVENT_DRIVEN
+    };
+
+    /**
+     * How the workers find out that none of them has any work left. COUNTING has every worker keep track of how many
+     * workers are awake, broadcasting a NetworkChange to the whole network each time it goes into or comes out of
+     * hibernation. TOKEN passes a single token around the workers, after Dijkstra and Safra, which is held by a worker
+     * while it has work and counts the WorkResponses still on their way. The network is exhausted when the token has
+     * been all the way round without any worker receiving work and with no work in transit, which takes one message
+     * per worker for each round rather than a broadcast for every change. Every worker in the network must use the same
+     * mode.
+     *
+     * COUNTING is only correct when the Communicator's delivery is causal. Otherwise a NetworkChange can be overtaken
+     * by a message it caused, and the network may be counted out while it still has work. COUNTING is the default where
+     * delivery is causal, TOKEN where it isn't.
+     */
+    public enum TerminationMode {
+        COUNTING, TOKEN
+    };
+
+    /**
+     * Whether the network stops at the first solution, FIRST, finds them all, ALL, or finds the one with the lowest
+     * bound, OPTIMUM. In ALL mode each worker's EnumeratingWorkSharer hands over its solutions, which are sent to the
+     * message manager's solution channel in batches, and the network shuts down once it has run out of work. Every
+     * worker flushes its batch before it asks for more work, so every solution has been sent before the network can run
+     * out of work. In OPTIMUM mode each worker's OptimisingWorkSharer publishes its best solution as the incumbent
+     * whenever it beats the best known to the worker's message manager, and is told of better bounds found elsewhere
+     * so it can prune its search. The result, once the network has run out of work, is the incumbent, which reaches
+     * the worker finding the network exhausted by way of the NetworkChange decreases or the TerminationToken.
+     */
+    public enum SolutionMode {
+        FIRST, ALL, OPTIMUM
+    };
+
+    /**
+     * How much work a worker gives away when it serves a request. DONOR leaves it to the WorkSharer's own giveWork.
+     * The others need a SplittingWorkSharer, whose units are taken largest first. HALF gives away the largest units for
+     * as long as their sizes add up to no more than half of the estimated total, and always at least the largest,
+     * LARGEST gives away only the largest unit and FIXED gives away a fixed number of the largest units. A WorkSharer
+     * which isn't a SplittingWorkSharer, or offers no units, is always left to its own giveWork.
+     */
+    public enum SplitPolicy {
+        DONOR, HALF, LARGEST, FIXED
+    };
+
     private static final long TIME_LOG_THREASHOLD = 10;
+    private static final int MAILBOX_BATCH = 32;
 
     private final Communicator comm;
-    private final int workSharingThreshold;
+    private SharingThreshold workSharingThreshold;
     private final int initHibernate;    
     private final int maxHibernate;
     private int networkSize;
     private int hibernationTime;
     private NetworkState state;
-    private BufferedWriter logFileWriter;
+    private final NetworkLog log;
+    private final WorkerMetrics metrics;
     private long managementCount;
+    private long requestSentTime;
+    private long workReceivedTime; // Zero when we haven't received any work since we last asked for some
+    private HibernationMode hibernationMode;
+    private TerminationMode terminationMode;
+    private long workBalance; // WorkResponses sent less those received, used by TOKEN termination
+    private boolean receivedWork; // Since we last passed on the token, the Safra algorithm calls this worker black
+    private TerminationToken heldToken; // Held until we are hibernating
+    private boolean probing; // For the initiator, whether the token is on its way round
+    private SolutionMode solutionMode;
+    private int solutionBatchSize;
+    private List<Object> solutions; // Found since we last sent a batch
+    private long knownBound; // The best bound our OptimisingWorkSharer has been told of
+    private WorkSerializer checkpointSerializer;
+    private CheckpointWriter checkpoint; // Once we have been asked to checkpoint, all our work goes here
+    private boolean checkpointed; // Whether we, or any worker we have heard from by token or decrease, wrote work to a checkpoint
+    private final NetworkMessage[] mailboxBatch; // Reused by every call to checkMailbox
+    private final Map<WorkerId, Integer> hungryWorkers; // Workers whose requests we couldn't serve, with the sequence of their latest request, used by EVENT_DRIVEN hibernation
+    private boolean requestOutstanding; // A worker never has more than one request in the network
+    private int poisonedSequence; // The sequence of our last request to come back unserved
+    private int lowWatermark; // Zero unless we prefetch work
+    private boolean prefetching; // The outstanding request was made while we still had work
+    private boolean prefetchFailed; // No more prefetching until we are given work, the network may have none to spare
+    private boolean jmxEnabled; // Whether our metrics are registered with the platform MBean server
+    private SplitPolicy splitPolicy;
+    private Clock clock;
+    private int fixedSplit; // The units given away by the FIXED split policy
+    private int[] splitUnits; // Reused by every split, the units offered by our SplittingWorkSharer
+    private long[] splitSizes; // Indexed by unit
+    private final int[] splitBounds; // Where the units the same size as a partition's pivot start and end
     
     public NetworkManager(Communicator comm, int networkSize, int workSharingThreshold, int initHibernate, int maxHibernate, String logFilePath) {
+        this(comm,networkSize,workSharingThreshold,initHibernate,maxHibernate,TextNetworkLog.open(logFilePath, comm.printSelf()));
+    }
+    
+    /**
+     * @param log may be null, in which case nothing is logged
+     */
+    public NetworkManager(Communicator comm, int networkSize, int workSharingThreshold, int initHibernate, int maxHibernate, NetworkLog log) {
         super();
         this.comm = comm;
         this.networkSize = networkSize;
         this.hibernationTime = initHibernate;
         this.state = NetworkState.AWAKE;
-        this.workSharingThreshold = workSharingThreshold;
+        this.workSharingThreshold = new StaticSharingThreshold(workSharingThreshold);
         this.managementCount = 0;
         this.initHibernate = initHibernate;
         this.maxHibernate = maxHibernate;
-        this.logFileWriter = generateLogFile(logFilePath, comm.printSelf()+".log");
-        log(comm.toString()+"\n"+"Pause time in milliseconds\n",true);
+        this.log = log;
+        this.metrics = new WorkerMetrics(comm.printSelf());
+        this.hibernationMode = HibernationMode.TIMED_BACKOFF;
+        this.terminationMode = comm.isDeliveryCausal() ? TerminationMode.COUNTING : TerminationMode.TOKEN;
+        this.checkpointSerializer = new JavaWorkSerializer();
+        this.solutionMode = SolutionMode.FIRST;
+        this.splitPolicy = SplitPolicy.DONOR;
+        this.splitUnits = new int[0];
+        this.splitSizes = new long[0];
+        this.splitBounds = new int[2];
+        this.clock = new SystemClock();
+        this.solutions = new ArrayList<Object>();
+        this.knownBound = Long.MAX_VALUE;
+        this.hungryWorkers = new LinkedHashMap<WorkerId, Integer>();
+        this.mailboxBatch = new NetworkMessage[MAILBOX_BATCH];
+        if (logging()) log.logStart(comm.toString());
     }
     
     public NetworkManager(Communicator comm, int networkSize, int workSharingThreshold, String logFilePath) {
@@ -62,46 +196,120 @@ public class NetworkManager {
         this(comm,networkSize,workSharingThreshold,2,1024,logFilePath);
     }
 
-    private BufferedWriter generateLogFile(String logFilePath, String logName) {
-        if (logFilePath == null) return null;
-        File newLogFile = new File(logFilePath + "/" + logName);
-        if (newLogFile.exists())
-            newLogFile.delete();
-        try {
-            newLogFile.createNewFile();
-            return new BufferedWriter(new FileWriter(newLogFile));
-        } catch (IOException e) {
-            System.out.println(newLogFile.getAbsolutePath());
-            e.printStackTrace();
-            return null;
-        }
+    /**
+     * Replaces the static threshold given to the constructor, an AdaptiveSharingThreshold will tune it as the search
+     * runs.
+     */
+    public void setSharingThreshold(SharingThreshold sharingThreshold) {
+        this.workSharingThreshold = sharingThreshold;
     }
-
-    private void log(String msg) {
-        log(msg, false);
+    
+    /**
+     * Should be set before the first call to manageNetwork, and to the same mode for every worker in the network.
+     */
+    public void setHibernationMode(HibernationMode hibernationMode) {
+        this.hibernationMode = hibernationMode;
     }
-
-    private void log(String msg, boolean timeStamped) {
-        if (state == NetworkState.SHUT_DOWN) return;
-        if (logFileWriter == null) return;
+    
+    /**
+     * Should be set before the first call to manageNetwork, and to the same mode for every worker in the network.
+     */
+    public void setTerminationMode(TerminationMode terminationMode) {
+        if (terminationMode == TerminationMode.COUNTING && !comm.isDeliveryCausal())
+            throw new IllegalArgumentException("COUNTING termination needs causal delivery, which the Communicator of " + comm.printSelf() + " doesn't give, use TOKEN.");
+        this.terminationMode = terminationMode;
+    }
+    
+    /**
+     * Replaces the wall clock, which a simulation does with its virtual clock. Should be set before the first call to
+     * manageNetwork.
+     */
+    public void setClock(Clock clock) {
+        this.clock = clock;
+    }
+    
+    /**
+     * Replaces the Java serialisation used to write our work to a checkpoint, a network using a transport with its own
+     * WorkSerializer should use the same one here. Null turns checkpointing off, so requestCheckpoint fails at once.
+     */
+    public void setCheckpointSerializer(WorkSerializer checkpointSerializer) {
+        this.checkpointSerializer = checkpointSerializer;
+    }
+    
+    /**
+     * Should be set before the first call to manageNetwork, and to the same mode for every worker in the network. In
+     * ALL mode the WorkSharer must be an EnumeratingWorkSharer, in OPTIMUM mode an OptimisingWorkSharer.
+     *
+     * @param batchSize the number of solutions a worker collects before sending them on, only used in ALL mode
+     */
+    public void setSolutionMode(SolutionMode solutionMode, int batchSize) {
+        if (solutionMode == SolutionMode.ALL && batchSize < 1) throw new IllegalArgumentException("A batch must hold at least one solution, got " + batchSize);
+        this.solutionMode = solutionMode;
+        this.solutionBatchSize = batchSize;
+    }
+    
+    /**
+     * Has a worker whose WorkSharer is a PrefetchingWorkSharer ask for more work as soon as its remaining work falls to
+     * lowWatermark, rather than waiting until it has none, so the response is on its way while the worker finishes what
+     * it has. Zero, the default, turns prefetching off.
+     */
+    public void setLowWatermark(int lowWatermark) {
+        this.lowWatermark = lowWatermark;
+    }
+    
+    /**
+     * Registers this worker's metrics with the platform MBean server at once, or unregisters them, so they can be
+     * watched from a JMX console while the search runs. They stay registered until the network shuts down. Off by
+     * default.
+     */
+    public void setJmxEnabled(boolean jmxEnabled) {
+        if (jmxEnabled == this.jmxEnabled) return;
         try {
-            Date date = new Date();
-            if (timeStamped) {
-                logFileWriter.append(Long.toString(date.getTime()));
-                logFileWriter.append(" : ");
-            }
-            logFileWriter.append(msg);
-            if (timeStamped)
-                logFileWriter.newLine();
-            logFileWriter.flush();
-        } catch (IOException e) {
-            e.printStackTrace();
-            try {
-                logFileWriter.close();
-            } catch (IOException e2) {
-                e2.printStackTrace();
-            }
+            if (jmxEnabled)
+                metrics.registerMBean();
+            else
+                metrics.unregisterMBean();
+        } catch (JMException e) {
+            throw new RuntimeException("Could not " + (jmxEnabled ? "register" : "unregister") + " the metrics of " + comm.printSelf(), e);
         }
+        this.jmxEnabled = jmxEnabled;
+    }
+    
+    /**
+     * Unlike the other modes the split policy only affects this worker, so each worker may choose its own.
+     *
+     * @param fixedUnits the number of units given away by the FIXED policy, ignored by the others
+     */
+    public void setSplitPolicy(SplitPolicy splitPolicy, int fixedUnits) {
+        if (splitPolicy == SplitPolicy.FIXED && fixedUnits < 1) throw new IllegalArgumentException("A FIXED split must give away at least one unit, got " + fixedUnits);
+        this.splitPolicy = splitPolicy;
+        this.fixedSplit = fixedUnits;
+    }
+    
+    /**
+     * Asks every worker in the network to write its remaining work to a checkpoint file in directory, which must exist
+     * on every machine in the network. The search stops and the network shuts down once all the work has been
+     * written. Unless a solution was found first, or no work was left to write, the ResultMessage isn't proven. Its
+     * result is false, or in OPTIMUM mode the best solution found so far, which is also written to the checkpoint. The
+     * files are complete once every worker has stopped and can be read back with a Checkpoint. Every WorkSharer must be
+     * a CheckpointableWorkSharer.
+     *
+     * @throws IllegalStateException if checkpointing has been turned off, as it is for a simulated network
+     */
+    public void requestCheckpoint(String directory) {
+        if (checkpointSerializer == null) throw new IllegalStateException("Checkpointing is turned off for " + comm.printSelf() + ".");
+        comm.broadcastCheckpoint(directory);
+    }
+    
+    /**
+     * The protocol metrics for this worker, these can be read from any thread.
+     */
+    public WorkerMetrics getMetrics() {
+        return metrics;
+    }
+    
+    private boolean logging() {
+        return log != null && state != NetworkState.SHUT_DOWN;
     }
     
     private boolean isHibernating(NetworkState checkingState) {
@@ -121,11 +329,11 @@ public class NetworkManager {
     }
 
     public boolean manageNetwork(WorkSharer workSharer) {
-        long startTime = System.currentTimeMillis();
+        long startTime = clock.currentTimeMillis();
         managementCount++;
         NetworkState newState = manageNetworkInt(workSharer, this.state);
         this.state = newState;
-        long stopTime = System.currentTimeMillis();
+        long stopTime = clock.currentTimeMillis();
         logManagementTime(startTime,stopTime);
         assert !isHibernating(state);
         assert !(workSharer.isComplete() && !isShutDown(state));
@@ -134,22 +342,28 @@ public class NetworkManager {
     
     private void logManagementTime(long startTime, long stopTime) {
         long elapsedTime = stopTime - startTime;
-        if (elapsedTime > TIME_LOG_THREASHOLD) {
-            log(Long.toString(elapsedTime)+"\n",true);
+        if (elapsedTime > TIME_LOG_THREASHOLD && logging()) {
+            log.logManagementTime(elapsedTime);
         }
     }
 
     private NetworkState manageNetworkInt(WorkSharer workSharer, NetworkState previousState) {
         assert previousState == NetworkState.AWAKE;
+        if (solutionMode == SolutionMode.ALL) collectSolutions(workSharer);
+        if (solutionMode == SolutionMode.OPTIMUM) exchangeBound(workSharer);
         if (workSharer.isComplete()) return modelFound(workSharer);
         NetworkState checkMailState = checkMailbox(workSharer, previousState);
         assert !isHibernating(checkMailState);
         if (isShutDown(checkMailState)) return checkMailState;
+        notifyHungryWorker(workSharer);
+        prefetchWork(workSharer);
         NetworkState workRequestState = makeWorkRequest(workSharer, checkMailState);
         if (workSharer.isComplete()) return modelFound(workSharer);
         assert !(workSharer.needsWork() && isAwake(workRequestState));
         if (isHibernating(workRequestState)) {
+            long hibernateStartTime = clock.nanoTime();
             NetworkState afterHibernateState = hibernate(workSharer,workRequestState);
+            metrics.hibernated(clock.nanoTime() - hibernateStartTime);
             if (workSharer.isComplete()) return modelFound(workSharer);
             assert !isHibernating(afterHibernateState);
             assert !(workSharer.needsWork() && isAwake(afterHibernateState));
@@ -160,26 +374,101 @@ public class NetworkManager {
         }
     }
 
+    // Messages are taken from the mailbox a batch at a time, but still handled one at a time in the order they arrived
     private NetworkState checkMailbox(WorkSharer workSharer, NetworkState previousState) {
         assert previousState == NetworkState.AWAKE;
         while (true) {
-            NetworkMessage message = comm.receive(0);
-            if (message == null)
+            int count = comm.receive(mailboxBatch);
+            if (count == 0)
                 return previousState;
-            NetworkState handleState = handleMessage(message, workSharer, previousState);
-            assert handleState != NetworkState.HIBERNATING;
-            assert handleState != NetworkState.POISONED;
-            if (isShutDown(handleState)) return handleState;
+            for (int i = 0; i < count; i++) {
+                NetworkMessage message = mailboxBatch[i];
+                mailboxBatch[i] = null;
+                NetworkState handleState = handleMessage(message, workSharer, previousState);
+                assert handleState != NetworkState.HIBERNATING;
+                assert handleState != NetworkState.POISONED;
+                if (isShutDown(handleState)) {
+                    Arrays.fill(mailboxBatch, i + 1, count, null);
+                    return handleState;
+                }
+            }
         }
     }
     
+    // Tells one hungry worker at a time, so a single donor isn't swamped with requests the moment it has work
+    private void notifyHungryWorker(WorkSharer workSharer) {
+        if (hungryWorkers.isEmpty() || workSharer.sharableWork() < workSharingThreshold.threshold()) return;
+        Iterator<Map.Entry<WorkerId, Integer>> hungry = hungryWorkers.entrySet().iterator();
+        Map.Entry<WorkerId, Integer> hungryWorker = hungry.next();
+        hungry.remove();
+        comm.sendWorkAvailable(hungryWorker.getKey(), hungryWorker.getValue().intValue());
+    }
+    
+    private void collectSolutions(WorkSharer workSharer) {
+        ((EnumeratingWorkSharer) workSharer).takeSolutions(solutions);
+        if (solutions.size() >= solutionBatchSize) flushSolutions();
+    }
+    
+    // Publishing at most once per call coalesces a run of improvements found by one piece of work into one broadcast,
+    // and as this is called before we ask for work our incumbent is published before we can be counted out of work
+    private void exchangeBound(WorkSharer workSharer) {
+        OptimisingWorkSharer optimiser = (OptimisingWorkSharer) workSharer;
+        Incumbent best = comm.bestIncumbent();
+        long localBound = optimiser.localBound();
+        if (best == null || localBound < best.bound) {
+            if (localBound == Long.MAX_VALUE) return; // Nothing found by anyone yet
+            best = new Incumbent(localBound, optimiser.getIncumbent());
+            comm.publishIncumbent(best);
+        }
+        if (best.bound < knownBound) {
+            knownBound = best.bound;
+            optimiser.boundImproved(knownBound);
+        }
+    }
+    
+    // May block until there is room in the solution channel
+    private void flushSolutions() {
+        if (solutions.isEmpty()) return;
+        comm.sendSolutions(new SolutionBatch(solutions));
+        solutions = new ArrayList<Object>();
+    }
+    
+    // The response is merged by checkMailbox whenever it arrives
+    private void prefetchWork(WorkSharer workSharer) {
+        if (lowWatermark == 0 || requestOutstanding || prefetchFailed || workSharer.needsWork()) return;
+        if (!(workSharer instanceof PrefetchingWorkSharer) || ((PrefetchingWorkSharer) workSharer).remainingWork() > lowWatermark) return;
+        if (logging()) log.logWorkRequest();
+        metrics.workRequestSent();
+        requestSentTime = clock.nanoTime();
+        requestOutstanding = true;
+        prefetching = true;
+        comm.broadcastWorkRequest();
+    }
+    
+    // A worker's requests can reach us out of order by different routes, only its latest one counts
+    private void addHungryWorker(WorkRequest request) {
+        Integer sequence = hungryWorkers.get(request.requestingWorker);
+        if (sequence == null || WorkRequest.isBefore(sequence.intValue(), request.sequence))
+            hungryWorkers.put(request.requestingWorker, Integer.valueOf(request.sequence));
+    }
+    
     private NetworkState makeWorkRequest(WorkSharer workSharer, NetworkState previousState) {
         assert previousState == NetworkState.AWAKE || previousState == NetworkState.HIBERNATING;
         if (!workSharer.needsWork()) return NetworkState.AWAKE;
+        flushSolutions(); // Before we can be counted out of work
+        if (workReceivedTime != 0) {
+            workSharingThreshold.workExhausted(clock.nanoTime() - workReceivedTime);
+            workReceivedTime = 0;
+        }
         NetworkState newState = previousState;
         while (true) {
-            log("Making work request", true);
-            comm.broadcastWorkRequest();
+            if (!requestOutstanding) { // Otherwise we wait for our prefetch
+                if (logging()) log.logWorkRequest();
+                metrics.workRequestSent();
+                requestSentTime = clock.nanoTime();
+                requestOutstanding = true;
+                comm.broadcastWorkRequest();
+            }
             newState = awaitWorkResponse(workSharer, previousState);
             if (!workSharer.needsWork())
                 return newState;
@@ -195,6 +484,7 @@ public class NetworkManager {
             NetworkState handledState = handleMessage(message, workSharer, previousState);
             if (isPoisoned(handledState)) return NetworkState.HIBERNATING;
             if (message instanceof WorkResponse || isShutDown(handledState)) return handledState;
+            if (!requestOutstanding) return handledState; // Our prefetch was poisoned, we must ask again
         }
     }
 
@@ -211,17 +501,31 @@ public class NetworkManager {
         if (message instanceof WorkResponse) {
             return handleWorkResponse((WorkResponse) message, workSharer, previousState);
         }
+        if (message instanceof WorkAvailable) {
+            return previousState; // Only acted on while hibernating, otherwise we already have work or are about to ask for it
+        }
+        if (message instanceof TerminationToken) {
+            return handleTerminationToken((TerminationToken) message, previousState);
+        }
+        if (message instanceof CheckpointNetwork) {
+            return handleCheckpointNetwork((CheckpointNetwork) message, workSharer, previousState);
+        }
         throw new IllegalStateException("We have received a message "+message+" that we don't know what to do with.");
     }
 
     private NetworkState handleNetworkChange(NetworkChange message, WorkSharer workSharer, NetworkState previousState) {
         comm.propagateMessage(message); // We propogate first just in case the network size
                             // drops to zero and we exit this jvm
+        if (message.incumbent != null) comm.publishIncumbent(message.incumbent);
+        checkpointed |= message.checkpointed;
         if (message.changeType == ChangeType.INC) {
+            metrics.networkIncreaseReceived();
+            hungryWorkers.remove(message.notifyingWorker);
             this.incNetworkSize();
             return previousState;
         }
         else {
+            metrics.networkDecreaseReceived();
             return decNetworkSize(previousState);
         }
     }
@@ -233,44 +537,276 @@ public class NetworkManager {
     // It should be noted that there is an assumption made that once this network 'node' goes into the TERMINATED state 
     // there is no need for it to receive or propagate any more messages
     private NetworkState shutdown() {
-        try {
-            if (logFileWriter != null) logFileWriter.close();
-        } catch (IOException e) {
-            e.printStackTrace();
-        }
+        if (log != null) log.close();
+        if (checkpoint != null) closeCheckpoint();
+        if (jmxEnabled) setJmxEnabled(false);
         return NetworkState.SHUT_DOWN;
     }
 
     private NetworkState handleWorkRequest(WorkRequest message, WorkSharer workSharer, NetworkState previousState) {
         if (comm.isPoisonWorkRequest(message)) { // This message has come full circle
-            log("Received poison work request",true);
-            if (previousState == NetworkState.AWAKE) { // Here we check to see if we are
+            if (logging()) log.logPoisonWorkRequest();
+            metrics.poisonRequestReceived();
+            workSharingThreshold.workRequestFailed();
+            requestOutstanding = false;
+            poisonedSequence = message.sequence;
+            if (prefetching) { // We may have given work away while it was out, so it can't tell us the network is dry
+                prefetching = false;
+                prefetchFailed = true;
+                return previousState;
+            }
+            if (previousState == NetworkState.AWAKE && terminationMode == TerminationMode.TOKEN) {
+                NetworkState passState = passTerminationToken(previousState);
+                return isShutDown(passState) ? passState : NetworkState.POISONED;
+            }
+            else if (previousState == NetworkState.AWAKE) { // Here we check to see if we are
                                                        // making a transition from awake
                                                        // to hibernating
-                comm.broadcastNetworkDecrease();
+                comm.broadcastNetworkDecrease(checkpointed);
+                metrics.networkDecreaseSent();
                 NetworkState decState = decNetworkSize(previousState);
                 return decState == NetworkState.SHUT_DOWN ? NetworkState.SHUT_DOWN : NetworkState.POISONED;
             }
             else {
                 return NetworkState.POISONED;
             }
-        } else if (workSharer.sharableWork() >= workSharingThreshold) {
-            Object sharedWork = workSharer.giveWork();
+        } else if (comm.isOwnWorkRequest(message)) {
+            // Passing back through us on its walk, a prefetching worker may have work to spare but serving itself would
+            // only split and merge its own work, and in TOKEN mode count as work received
+            comm.propagateMessage(message);
+            return previousState;
+        } else if (workSharer.sharableWork() >= workSharingThreshold.threshold()) {
+            hungryWorkers.remove(message.requestingWorker); // It has its work, telling it about more would only draw another request
+            int sharableBefore = workSharer.sharableWork();
+            Object sharedWork = splitWork(workSharer);
+            metrics.workRequestServed(sharableBefore - workSharer.sharableWork());
+            workBalance++;
             comm.sendWorkResponse(message, sharedWork);
             return previousState;
         } else {
+            if (hibernationMode == HibernationMode.EVENT_DRIVEN)
+                addHungryWorker(message);
             comm.propagateMessage(message);
             return previousState;
         }
     }
 
+    // Selects in place, only sorting the units given away, so serving a request costs time linear in the number of units
+    // offered in the expected case
+    private Object splitWork(WorkSharer workSharer) {
+        if (splitPolicy == SplitPolicy.DONOR || !(workSharer instanceof SplittingWorkSharer)) return workSharer.giveWork();
+        SplittingWorkSharer splitter = (SplittingWorkSharer) workSharer;
+        int unitCount = splitter.workUnits();
+        if (unitCount == 0) return workSharer.giveWork();
+        if (splitUnits.length < unitCount) {
+            splitUnits = new int[Math.max(unitCount, splitUnits.length * 2)];
+            splitSizes = new long[splitUnits.length];
+        }
+        int[] units = splitUnits;
+        long[] sizes = splitSizes;
+        long total = 0;
+        int largest = 0;
+        for (int i = 0; i < unitCount; i++) {
+            units[i] = i;
+            sizes[i] = splitter.unitSize(i);
+            total = saturatedAdd(total, sizes[i]);
+            if (sizes[i] > sizes[largest]) largest = i;
+        }
+        int count;
+        if (splitPolicy == SplitPolicy.FIXED) {
+            count = Math.min(fixedSplit, unitCount);
+            selectLargest(units, sizes, count, unitCount, splitBounds);
+        } else if (splitPolicy == SplitPolicy.HALF) {
+            count = selectHalf(units, sizes, total / 2, unitCount, splitBounds);
+        } else {
+            count = 0;
+        }
+        if (count == 0) { // LARGEST, or a HALF whose largest unit is more than half of the total
+            units[0] = largest;
+            count = 1;
+        }
+        Arrays.sort(units, 0, count);
+        return splitter.giveWork(units, count);
+    }
+
+    // Estimates of huge trees may overflow
+    private static long saturatedAdd(long a, long b) {
+        return Long.MAX_VALUE - a < b ? Long.MAX_VALUE : a + b;
+    }
+
+    // Moves the count largest of units[0, unitCount) to the front, in no particular order
+    private static void selectLargest(int[] units, long[] sizes, int count, int unitCount, int[] bounds) {
+        int from = 0;
+        int to = unitCount;
+        while (from < to) {
+            partition(units, sizes, from, to, bounds);
+            if (count <= bounds[0])
+                to = bounds[0];
+            else if (count <= bounds[1])
+                return;
+            else
+                from = bounds[1];
+        }
+    }
+
+    // Moves the largest units to the front, for as long as their sizes add up to no more than budget, and returns how
+    // many were moved. Each round takes all of the units larger than the pivot, and as many of those the same size as
+    // it as fit within what is left of the budget, otherwise it looks among the larger units only.
+    private static int selectHalf(int[] units, long[] sizes, long budget, int unitCount, int[] bounds) {
+        int count = 0;
+        int from = 0;
+        int to = unitCount;
+        while (from < to) {
+            partition(units, sizes, from, to, bounds);
+            long larger = 0;
+            for (int i = from; i < bounds[0]; i++) {
+                larger = saturatedAdd(larger, sizes[units[i]]);
+            }
+            if (larger > budget) {
+                to = bounds[0];
+                continue;
+            }
+            budget -= larger;
+            long pivotSize = sizes[units[bounds[0]]];
+            int equal = bounds[1] - bounds[0];
+            int taken = pivotSize <= 0 ? equal : (int) Math.min(equal, budget / pivotSize);
+            count = bounds[0] + taken;
+            if (taken < equal) break;
+            budget -= taken * pivotSize;
+            from = bounds[1];
+        }
+        return count;
+    }
+
+    // Partitions units[from, to) about the size of its middle unit, into those larger, those the same size and those
+    // smaller, and sets bounds to where the units the same size start and end. Grouping the units the same size keeps
+    // the selection linear when many of them are, as they are when sizes come from depths.
+    private static void partition(int[] units, long[] sizes, int from, int to, int[] bounds) {
+        long pivotSize = sizes[units[from + (to - from) / 2]];
+        int larger = from;
+        int i = from;
+        int smaller = to;
+        while (i < smaller) {
+            long size = sizes[units[i]];
+            if (size > pivotSize)
+                swap(units, i++, larger++);
+            else if (size < pivotSize)
+                swap(units, i, --smaller);
+            else
+                i++;
+        }
+        bounds[0] = larger;
+        bounds[1] = smaller;
+    }
+
+    private static void swap(int[] units, int i, int j) {
+        int unit = units[i];
+        units[i] = units[j];
+        units[j] = unit;
+    }
+
     private NetworkState handleWorkResponse(WorkResponse message, WorkSharer workSharer, NetworkState previousState) {
         assert !isShutDown(previousState);
-        log(message.respondingWorker+"->"+comm.printSelf()+"\n",true);
+        if (logging()) log.logWorkResponse(message.respondingWorker);
+        requestOutstanding = false;
+        prefetching = false;
+        prefetchFailed = false;
+        workBalance--;
+        receivedWork = true;
+        workReceivedTime = clock.nanoTime();
+        metrics.workResponseReceived(message.requestHops, workReceivedTime - requestSentTime);
+        workSharingThreshold.workReceived(workReceivedTime - requestSentTime);
+        if (checkpoint != null) {
+            writeCheckpoint(message.workstack); // Work still on its way when the checkpoint was asked for
+            return announceCheckpointed(previousState);
+        }
         workSharer.receiveWork(message.workstack);
         return previousState; // If you are awake - you remain awake. If you are hibernating you remain hibernating
     }
 
+    // From here on we have no work, so the network winds down through its usual termination detection once every
+    // worker has written its work, and that also tells us no work is left on its way to us
+    private NetworkState handleCheckpointNetwork(CheckpointNetwork message, WorkSharer workSharer, NetworkState previousState) {
+        if (checkpoint != null) return previousState;
+        if (!(workSharer instanceof CheckpointableWorkSharer))
+            throw new IllegalStateException("The WorkSharer of " + comm.printSelf() + " is not a CheckpointableWorkSharer.");
+        if (checkpointSerializer == null)
+            throw new IllegalStateException("Checkpointing is turned off for " + comm.printSelf() + ".");
+        try {
+            checkpoint = CheckpointWriter.open(new File(message.directory), comm.printSelf(), checkpointSerializer);
+        } catch (IOException e) {
+            throw new RuntimeException("Could not create the checkpoint of " + comm.printSelf(), e);
+        }
+        Object remainingWork = ((CheckpointableWorkSharer) workSharer).takeRemainingWork();
+        if (remainingWork == null) return previousState;
+        writeCheckpoint(remainingWork);
+        return announceCheckpointed(previousState);
+    }
+    
+    // Once counted out by COUNTING termination we won't send another decrease, so whoever finds the network exhausted
+    // would never hear we wrote work away. An increase and a decrease carrying the news leave the count as it was, and
+    // as we send them before passing on any request they reach everyone ahead of the last decrease. The token passes
+    // through us again before TOKEN termination can end the network, so it needs nothing more.
+    private NetworkState announceCheckpointed(NetworkState previousState) {
+        if (terminationMode != TerminationMode.COUNTING || isAwake(previousState)) return previousState;
+        comm.broadcastNetworkIncrease();
+        metrics.networkIncreaseSent();
+        incNetworkSize();
+        comm.broadcastNetworkDecrease(true);
+        metrics.networkDecreaseSent();
+        return decNetworkSize(previousState);
+    }
+    
+    private void writeCheckpoint(Object work) {
+        checkpointed = true;
+        try {
+            checkpoint.write(work);
+        } catch (IOException e) {
+            throw new RuntimeException("Could not write the checkpoint of " + comm.printSelf(), e);
+        }
+    }
+    
+    private void closeCheckpoint() {
+        try {
+            checkpoint.close(solutionMode == SolutionMode.OPTIMUM ? comm.bestIncumbent() : null);
+        } catch (IOException e) {
+            throw new RuntimeException("Could not close the checkpoint of " + comm.printSelf(), e);
+        }
+        checkpoint = null;
+    }
+    
+    private NetworkState handleTerminationToken(TerminationToken token, NetworkState previousState) {
+        assert heldToken == null;
+        if (token.incumbent != null) comm.publishIncumbent(token.incumbent);
+        checkpointed |= token.checkpointed;
+        heldToken = token;
+        if (isHibernating(previousState)) return passTerminationToken(previousState);
+        return previousState; // Passed on when we run out of work
+    }
+    
+    // Called when we hold the token, or may be about to, and have just run out of work or are hibernating
+    private NetworkState passTerminationToken(NetworkState previousState) {
+        if (comm.isTerminationInitiator()) {
+            if (probing && heldToken == null) return previousState; // Still on its way round
+            if (probing && !heldToken.black && !receivedWork && heldToken.workBalance + workBalance == 0) {
+                heldToken = null;
+                return networkExhausted(previousState);
+            }
+            // The first round, or a round which saw work moving, we start another
+            heldToken = null;
+            probing = true;
+            receivedWork = false;
+            comm.sendTerminationToken(new TerminationToken(0, false));
+            return previousState;
+        }
+        if (heldToken == null) return previousState;
+        TerminationToken token = heldToken;
+        heldToken = null;
+        comm.sendTerminationToken(new TerminationToken(token.workBalance + workBalance, token.black || receivedWork, checkpointed, comm.bestIncumbent()));
+        receivedWork = false;
+        return previousState;
+    }
+
     public int incNetworkSize() {
         networkSize++;
         return networkSize;
@@ -286,6 +822,7 @@ public class NetworkManager {
 
     public NetworkState hibernate(WorkSharer workSharer, NetworkState previousState) {
         assert previousState == NetworkState.HIBERNATING;
+        if (hibernationMode == HibernationMode.EVENT_DRIVEN) return hibernateUntilNotified(workSharer, previousState);
         while (true) {
             NetworkState requestState = makeWorkRequest(workSharer,previousState);
             assert !isAwake(requestState);
@@ -304,9 +841,51 @@ public class NetworkManager {
         }
     }
 
+    // Our poisoned request has registered us as hungry with every worker it visited, so we wait to hear from one of them
+    private NetworkState hibernateUntilNotified(WorkSharer workSharer, NetworkState previousState) {
+        assert previousState == NetworkState.HIBERNATING;
+        while (true) {
+            NetworkMessage message = comm.receive(maxHibernate);
+            NetworkState handleState;
+            if (message == null) {
+                handleState = makeWorkRequest(workSharer, previousState);
+            } else if (message instanceof WorkAvailable) {
+                handleState = handleWorkAvailable((WorkAvailable) message, workSharer, previousState);
+            } else {
+                handleState = handleMessage(message, workSharer, previousState);
+                assert handleState != NetworkState.POISONED;
+            }
+            assert !isAwake(handleState);
+            if (isShutDown(handleState)) {
+                return handleState;
+            }
+            if (!workSharer.needsWork()) {
+                resetHibernation();
+                return NetworkState.AWAKE;
+            }
+        }
+    }
+
+    // A notification prompted by a request older than our last poisoned one is stale, that request went round every
+    // worker after the notification was sent and none of them had work to share
+    private NetworkState handleWorkAvailable(WorkAvailable message, WorkSharer workSharer, NetworkState previousState) {
+        if (WorkRequest.isBefore(message.requestSequence, poisonedSequence)) return previousState;
+        return requestWorkFrom(message.donor, workSharer, previousState);
+    }
+
+    private NetworkState requestWorkFrom(WorkerId donor, WorkSharer workSharer, NetworkState previousState) {
+        if (logging()) log.logWorkRequest();
+        metrics.workRequestSent();
+        requestSentTime = clock.nanoTime();
+        assert !requestOutstanding;
+        requestOutstanding = true;
+        comm.sendWorkRequest(donor);
+        return awaitWorkResponse(workSharer, previousState);
+    }
+
     private NetworkState processMessagesInHibernation(WorkSharer workSharer, NetworkState previousState) {
         assert previousState == NetworkState.HIBERNATING;
-        long startTime = System.currentTimeMillis();
+        long startTime = clock.currentTimeMillis();
         long currentTime = -1;
         do {
             NetworkMessage message = comm.receive(hibernationTime);
@@ -316,32 +895,45 @@ public class NetworkManager {
                 assert handleState != NetworkState.POISONED;
                 if (isShutDown(handleState)) return handleState;
             }
-            currentTime = System.currentTimeMillis();
+            currentTime = clock.currentTimeMillis();
         } while (currentTime - startTime < hibernationTime);
         hibernationTime = Math.min(hibernationTime * 2, maxHibernate);
         return previousState;
     }
     
     public void triviallyUnsolvable(WorkSharer workSharer) {
+        flushSolutions();
         comm.sendResult(new ResultMessage(workSharer.getFailureMessage()));
         comm.broadcastShutDownNetwork();
         shutdown();
     }
 
+    // If any worker wrote work to a checkpoint the network ran out of work because it was written away, not searched.
+    // Every worker which did has told us, by the token or a decrease, before we can find the network exhausted.
     public NetworkState networkExhausted(NetworkState previousState) {
-        comm.sendResult(new ResultMessage(false));
+        flushSolutions();
+        Incumbent incumbent = comm.bestIncumbent();
+        boolean proven = !checkpointed;
+        if (solutionMode == SolutionMode.OPTIMUM && incumbent != null)
+            comm.sendResult(new ResultMessage(incumbent.solution, proven));
+        else
+            comm.sendResult(new ResultMessage(false, proven));
         comm.broadcastShutDownNetwork();
         return shutdown();
     }
 
     private void resetHibernation() {
-        comm.broadcastNetworkIncrease();
-        incNetworkSize();
+        if (terminationMode == TerminationMode.COUNTING) {
+            comm.broadcastNetworkIncrease();
+            metrics.networkIncreaseSent();
+            incNetworkSize();
+        }
         hibernationTime = initHibernate;
     }
 
     private NetworkState modelFound(WorkSharer workSharer) {
-        log("Satisfying model found");
+        if (logging()) log.logModelFound();
+        flushSolutions();
         comm.sendResult(new ResultMessage(workSharer.getSuccessMessage()));
         comm.broadcastShutDownNetwork();
         return shutdown();
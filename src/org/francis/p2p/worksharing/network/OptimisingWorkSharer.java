@@ -0,0 +1,26 @@
+package org.francis.p2p.worksharing.network;
+
+/**
+ * A WorkSharer searching for the solution with the lowest bound, for a NetworkManager in the OPTIMUM solution mode. The
+ * best bound found anywhere in the network is passed to every worker so each can prune the work which can't beat it.
+ * The search carries on until the whole network runs out of work, unless isComplete returns true to stop it early.
+ */
+public interface OptimisingWorkSharer extends WorkSharer {
+
+    /**
+     * The bound of the best solution this worker has found, or Long.MAX_VALUE if it hasn't found one. Called between
+     * every piece of work, so it must be cheap.
+     */
+    public abstract long localBound();
+
+    /**
+     * The best solution this worker has found, only called once localBound has beaten the best bound in the network.
+     * The solution is shared with the other workers, so it must not be changed afterwards.
+     */
+    public abstract Object getIncumbent();
+
+    /**
+     * Tells this worker that a solution with the given bound has been found somewhere in the network.
+     */
+    public abstract void boundImproved(long bound);
+}
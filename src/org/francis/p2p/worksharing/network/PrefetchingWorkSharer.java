@@ -0,0 +1,13 @@
+package org.francis.p2p.worksharing.network;
+
+/**
+ * A WorkSharer which can estimate how much work it has left, so its NetworkManager can ask for more before it runs out.
+ */
+public interface PrefetchingWorkSharer extends WorkSharer {
+
+    /**
+     * An estimate of the work this worker has left, in whatever units the WorkSharer likes, compared with the
+     * NetworkManager's low watermark. Called between every piece of work, so it must be cheap.
+     */
+    public abstract int remainingWork();
+}
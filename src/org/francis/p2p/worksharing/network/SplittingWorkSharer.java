@@ -0,0 +1,26 @@
+package org.francis.p2p.worksharing.network;
+
+/**
+ * A WorkSharer which lets its NetworkManager choose the work it gives away, by its split policy. The work this worker
+ * could give away is offered as units, typically the open nodes of its search, each with an estimate of its size, so
+ * a request can be served with a few large subtrees rather than many small ones which are soon used up.
+ */
+public interface SplittingWorkSharer extends WorkSharer {
+
+    /**
+     * The number of units this worker could give away, numbered from zero. Should not count the work this worker needs
+     * to carry on with.
+     */
+    public abstract int workUnits();
+
+    /**
+     * An estimate of the work in unit, such as the number of nodes below it or any measure growing with its height in
+     * the search tree. Must not be negative.
+     */
+    public abstract long unitSize(int unit);
+
+    /**
+     * Removes the first count of units, given in increasing order, and returns them in the same form as giveWork.
+     */
+    public abstract Object giveWork(int[] units, int count);
+}
@@ -0,0 +1,17 @@
+package org.francis.p2p.worksharing.network;
+
+/**
+ * The wall clock, read through System.
+ */
+public class SystemClock implements Clock {
+
+    @Override
+    public long currentTimeMillis() {
+        return System.currentTimeMillis();
+    }
+
+    @Override
+    public long nanoTime() {
+        return System.nanoTime();
+    }
+}
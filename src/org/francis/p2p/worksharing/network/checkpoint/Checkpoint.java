@@ -0,0 +1,117 @@
+package org.francis.p2p.worksharing.network.checkpoint;
+
+import java.io.File;
+import java.io.FileFilter;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import org.francis.p2p.worksharing.network.codec.JavaWorkSerializer;
+import org.francis.p2p.worksharing.network.codec.WorkSerializer;
+import org.francis.p2p.worksharing.network.message.Incumbent;
+
+/**
+ * The work saved by every worker of a checkpointed network, read back from the checkpoint files written by each
+ * CheckpointWriter. A network of any size can be seeded with it by passing each worker its share from workFor, and in
+ * the OPTIMUM solution mode by publishing its incumbent to the network's message manager before the workers start.
+ */
+public class Checkpoint {
+
+    private final List<Object> work;
+    private final Incumbent incumbent;
+
+    private Checkpoint(List<Object> work, Incumbent incumbent) {
+        this.work = work;
+        this.incumbent = incumbent;
+    }
+
+    /**
+     * Reads every checkpoint file in directory. The files of a network spread over several machines must first be
+     * gathered into one directory.
+     */
+    public static Checkpoint read(File directory, WorkSerializer workSerializer) throws IOException {
+        File[] files = directory.listFiles(new FileFilter() {
+            @Override
+            public boolean accept(File file) {
+                return file.isFile() && file.getName().endsWith(CheckpointWriter.SUFFIX);
+            }
+        });
+        if (files == null) throw new IOException("Cannot list the checkpoint directory " + directory);
+        Arrays.sort(files);
+        List<Object> work = new ArrayList<Object>();
+        Incumbent best = null;
+        for (File file : files) {
+            Incumbent incumbent = readFile(file, workSerializer, work);
+            if (incumbent != null && incumbent.isBetterThan(best)) best = incumbent;
+        }
+        return new Checkpoint(work, best);
+    }
+
+    // Returns the file's incumbent, or null if it has none
+    private static Incumbent readFile(File file, WorkSerializer workSerializer, List<Object> work) throws IOException {
+        FileChannel channel = new RandomAccessFile(file, "r").getChannel();
+        try {
+            MappedByteBuffer in = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            if (in.remaining() < CheckpointWriter.HEADER_SIZE || in.getInt(0) != CheckpointWriter.MAGIC)
+                throw new IOException(file + " is not a checkpoint file, or was not closed.");
+            if (in.getInt(4) != CheckpointWriter.VERSION)
+                throw new IOException(file + " has unsupported version " + in.getInt(4));
+            int workCount = in.getInt(8);
+            in.position(CheckpointWriter.HEADER_SIZE);
+            for (int i = 0; i < workCount; i++) {
+                work.add(readEntry(in, workSerializer));
+            }
+            if (in.getInt(12) == 0) return null;
+            long bound = in.getLong();
+            return new Incumbent(bound, readEntry(in, new JavaWorkSerializer()));
+        } finally {
+            channel.close();
+        }
+    }
+
+    private static Object readEntry(ByteBuffer in, WorkSerializer serializer) {
+        int length = in.getInt();
+        ByteBuffer slice = in.slice();
+        slice.limit(length);
+        in.position(in.position() + length);
+        return serializer.read(slice);
+    }
+
+    /**
+     * All the saved work, in the order of the files and then the order each worker wrote it.
+     */
+    public List<Object> work() {
+        return Collections.unmodifiableList(work);
+    }
+
+    /**
+     * The share of the work for one of workerCount workers, dealt out in turn so every worker gets a share while there
+     * is enough to go round. Each piece should be passed to the worker's receiveWork before the search starts.
+     */
+    public List<Object> workFor(int worker, int workerCount) {
+        List<Object> share = new ArrayList<Object>();
+        for (int i = worker; i < work.size(); i += workerCount) {
+            share.add(work.get(i));
+        }
+        return share;
+    }
+
+    /**
+     * The best solution found before the checkpoint by a network searching in the OPTIMUM solution mode, or null if
+     * there wasn't one. A resumed search should publish it before its workers start, with SMPRuntime.setIncumbent or
+     * its message manager's publishIncumbent, so they prune against it from the start.
+     */
+    public Incumbent incumbent() {
+        return incumbent;
+    }
+
+    public boolean isEmpty() {
+        return work.isEmpty();
+    }
+}
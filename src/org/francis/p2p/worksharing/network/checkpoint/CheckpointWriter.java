@@ -0,0 +1,161 @@
+package org.francis.p2p.worksharing.network.checkpoint;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.lang.reflect.Field;
+import java.lang.reflect.Method;
+import java.nio.BufferOverflowException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+
+import org.francis.p2p.worksharing.network.codec.JavaWorkSerializer;
+import org.francis.p2p.worksharing.network.codec.WorkSerializer;
+import org.francis.p2p.worksharing.network.message.Incumbent;
+
+/**
+ * Writes the work of one worker to the checkpoint file self.ckpt, through a memory mapping of the file which is
+ * remapped at twice the size whenever the work doesn't fit. Each piece of work is written by the WorkSerializer
+ * straight into the mapping. Every mapping is released as soon as it is replaced, and the last one before the file is
+ * trimmed, as a mapped file can't be truncated on some platforms. Java only releases a mapping through internal APIs,
+ * so on a JVM where neither is found the file keeps its unused tail, which Checkpoint ignores.
+ * <pre>
+ * header    : int MAGIC, int VERSION, int workCount, int hasIncumbent
+ * work      : int length, serialised work
+ * incumbent : long bound, int length, Java serialised solution, only if hasIncumbent is 1
+ * </pre>
+ * A network searching in the OPTIMUM solution mode writes the best solution each worker knew of when it stopped, as
+ * the incumbent, so a resumed search needn't find it again.
+ */
+public class CheckpointWriter {
+
+    static final int MAGIC = 0x50325043;
+    static final int VERSION = 1;
+    static final int HEADER_SIZE = 16;
+    static final String SUFFIX = ".ckpt";
+
+    private static final int INITIAL_SIZE = 64 * 1024;
+    private static final WorkSerializer SOLUTION_SERIALIZER = new JavaWorkSerializer(); // The solution is opaque to us
+
+    private final File file;
+    private final FileChannel channel;
+    private final WorkSerializer workSerializer;
+    private MappedByteBuffer mapping;
+    private int workCount;
+
+    private CheckpointWriter(File file, FileChannel channel, WorkSerializer workSerializer) throws IOException {
+        this.file = file;
+        this.channel = channel;
+        this.workSerializer = workSerializer;
+        this.mapping = channel.map(FileChannel.MapMode.READ_WRITE, 0, INITIAL_SIZE);
+        this.mapping.position(HEADER_SIZE);
+    }
+
+    /**
+     * Creates the checkpoint file self.ckpt in directory, replacing any earlier one.
+     */
+    public static CheckpointWriter open(File directory, String self, WorkSerializer workSerializer) throws IOException {
+        File file = new File(directory, self + SUFFIX);
+        if (file.exists())
+            file.delete();
+        FileChannel channel = new RandomAccessFile(file, "rw").getChannel();
+        try {
+            return new CheckpointWriter(file, channel, workSerializer);
+        } catch (IOException e) {
+            channel.close();
+            throw e;
+        }
+    }
+
+    public void write(Object work) throws IOException {
+        writeEntry(work, workSerializer);
+        workCount++;
+    }
+
+    private void writeIncumbent(Incumbent incumbent) throws IOException {
+        if (mapping.remaining() < 8) remap(mapping.position(), mapping.capacity() * 2);
+        mapping.putLong(incumbent.bound);
+        writeEntry(incumbent.solution, SOLUTION_SERIALIZER);
+    }
+
+    // Writes object behind its int length, remapping until it fits
+    private void writeEntry(Object object, WorkSerializer serializer) throws IOException {
+        while (true) {
+            int start = mapping.position();
+            try {
+                mapping.putInt(0);
+                serializer.write(object, mapping);
+                mapping.putInt(start, mapping.position() - start - 4);
+                return;
+            } catch (BufferOverflowException e) {
+                remap(start, mapping.capacity() * 2);
+            }
+        }
+    }
+
+    private void remap(int position, int size) throws IOException {
+        if (size < 0) throw new IOException("The checkpoint " + file + " is too large to map.");
+        MappedByteBuffer previous = mapping;
+        mapping = channel.map(FileChannel.MapMode.READ_WRITE, 0, size);
+        mapping.position(position);
+        unmap(previous);
+    }
+
+    /**
+     * Writes the header, trims the file to the work written and closes it.
+     */
+    public void close() throws IOException {
+        close(null);
+    }
+
+    /**
+     * As close, but first writes incumbent after the work, unless it is null.
+     */
+    public void close(Incumbent incumbent) throws IOException {
+        if (incumbent != null) writeIncumbent(incumbent);
+        int end = mapping.position();
+        mapping.putInt(0, MAGIC).putInt(4, VERSION).putInt(8, workCount).putInt(12, incumbent == null ? 0 : 1);
+        mapping.force();
+        MappedByteBuffer last = mapping;
+        mapping = null;
+        try {
+            if (unmap(last)) channel.truncate(end);
+        } finally {
+            channel.close();
+        }
+    }
+
+    // The mapping must not be touched again once this returns true
+    private static boolean unmap(MappedByteBuffer mapping) {
+        try {
+            // Since Java 9
+            Class<?> unsafeClass = Class.forName("sun.misc.Unsafe");
+            Field theUnsafe = unsafeClass.getDeclaredField("theUnsafe");
+            theUnsafe.setAccessible(true);
+            unsafeClass.getMethod("invokeCleaner", ByteBuffer.class).invoke(theUnsafe.get(null), mapping);
+            return true;
+        } catch (ReflectiveOperationException e) {
+            // Fall through to the cleaner of older JVMs
+        } catch (RuntimeException e) {
+            // Such as an InaccessibleObjectException, the cleaner below won't be reachable either
+            return false;
+        }
+        try {
+            Method cleanerMethod = mapping.getClass().getMethod("cleaner");
+            cleanerMethod.setAccessible(true);
+            Object cleaner = cleanerMethod.invoke(mapping);
+            if (cleaner == null) return false;
+            cleaner.getClass().getMethod("clean").invoke(cleaner);
+            return true;
+        } catch (ReflectiveOperationException e) {
+            return false;
+        } catch (RuntimeException e) {
+            return false; // Such as a SecurityException
+        }
+    }
+
+    public int workCount() {
+        return workCount;
+    }
+}
@@ -0,0 +1,48 @@
+package org.francis.p2p.worksharing.network.codec;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.nio.ByteBuffer;
+
+/**
+ * Writes work with Java serialisation, so it works for any Serializable work but copies it through byte arrays.
+ */
+public class JavaWorkSerializer implements WorkSerializer {
+
+    @Override
+    public void write(Object work, ByteBuffer out) {
+        out.put(serialise(work));
+    }
+
+    @Override
+    public Object read(ByteBuffer in) {
+        byte[] bytes = new byte[in.remaining()];
+        in.get(bytes);
+        return deserialise(bytes);
+    }
+
+    static byte[] serialise(Object object) {
+        try {
+            ByteArrayOutputStream byteStream = new ByteArrayOutputStream();
+            ObjectOutputStream objectStream = new ObjectOutputStream(byteStream);
+            objectStream.writeObject(object);
+            objectStream.close();
+            return byteStream.toByteArray();
+        } catch (IOException e) {
+            throw new RuntimeException("Unable to serialise " + object, e); // It must be Serializable
+        }
+    }
+
+    static Object deserialise(byte[] bytes) {
+        try {
+            return new ObjectInputStream(new ByteArrayInputStream(bytes)).readObject();
+        } catch (IOException e) {
+            throw new RuntimeException(e); // The message was complete, so its contents must be corrupt
+        } catch (ClassNotFoundException e) {
+            throw new RuntimeException(e); // Both ends must have the same classes on their classpath
+        }
+    }
+}
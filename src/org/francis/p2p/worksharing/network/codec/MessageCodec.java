@@ -0,0 +1,289 @@
+package org.francis.p2p.worksharing.network.codec;
+
+import java.nio.BufferOverflowException;
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+
+import org.francis.p2p.worksharing.network.WorkerId;
+import org.francis.p2p.worksharing.network.message.CheckpointNetwork;
+import org.francis.p2p.worksharing.network.message.Incumbent;
+import org.francis.p2p.worksharing.network.message.NetworkChange;
+import org.francis.p2p.worksharing.network.message.NetworkChange.ChangeType;
+import org.francis.p2p.worksharing.network.message.NetworkMessage;
+import org.francis.p2p.worksharing.network.message.ResultMessage;
+import org.francis.p2p.worksharing.network.message.ShutDownNetwork;
+import org.francis.p2p.worksharing.network.message.TerminationToken;
+import org.francis.p2p.worksharing.network.message.WorkAvailable;
+import org.francis.p2p.worksharing.network.message.WorkRequest;
+import org.francis.p2p.worksharing.network.message.WorkResponse;
+
+/**
+ * A compact binary encoding of the protocol messages for transports which send them out of the JVM. Every message is a
+ * one byte tag followed by its fields, worker ids and counts are written as varints so most messages take only a few
+ * bytes. The work stack of a WorkResponse is written by a WorkSerializer behind an int length, and the result of a
+ * ResultMessage, which is opaque to the library and only sent once, is written with Java serialisation behind a varint
+ * length.
+ *
+ * <pre>
+ * WorkRequest     : tag, up, down, requester, varint hops, byte directed, varint sequence
+ * WorkResponse    : tag, responder, varint requestHops, int length, workstack
+ * NetworkChange   : tag, up, down, finalDestination, byte changeType, notifyingWorker, incumbent, byte checkpointed
+ * WorkAvailable   : tag, donor, varint requestSequence
+ * ShutDownNetwork : tag
+ * ResultMessage   : tag, byte proven, object result
+ * TerminationToken: tag, long workBalance, byte black, byte checkpointed, incumbent
+ * CheckpointNetwork: tag, varint length, UTF-8 directory
+ * Incumbent       : tag, long bound, object solution
+ * </pre>
+ * A worker id is written as a varint of its index plus one, leaving zero for null. An incumbent carried by another
+ * message is a byte which is zero for null, followed by the bound and solution when it isn't.
+ *
+ * A codec reuses its encoding buffer and is not thread safe, each thread should have its own.
+ */
+public class MessageCodec {
+
+    static final byte WORK_REQUEST = 1;
+    static final byte WORK_RESPONSE = 2;
+    static final byte NETWORK_CHANGE = 3;
+    static final byte WORK_AVAILABLE = 4;
+    static final byte SHUT_DOWN_NETWORK = 5;
+    static final byte RESULT = 6;
+    static final byte TERMINATION_TOKEN = 7;
+    static final byte CHECKPOINT_NETWORK = 8;
+    static final byte INCUMBENT = 9;
+
+    private static final Charset UTF8 = Charset.forName("UTF-8");
+
+    private static final int INITIAL_BUFFER = 256;
+
+    private final WorkerIdCodec workerIds;
+    private final WorkSerializer workSerializer;
+    private ByteBuffer buffer;
+
+    public MessageCodec(WorkerIdCodec workerIds) {
+        this(workerIds, new JavaWorkSerializer());
+    }
+
+    public MessageCodec(WorkerIdCodec workerIds, WorkSerializer workSerializer) {
+        this.workerIds = workerIds;
+        this.workSerializer = workSerializer;
+        this.buffer = ByteBuffer.allocateDirect(INITIAL_BUFFER);
+    }
+
+    /**
+     * Encodes msg into the codec's own buffer, which grows as needed. The returned buffer holds just the encoded message
+     * and is only valid until the next call to encode.
+     */
+    public ByteBuffer encode(NetworkMessage msg) {
+        while (true) {
+            buffer.clear();
+            try {
+                encode(msg, buffer);
+                buffer.flip();
+                return buffer;
+            } catch (BufferOverflowException e) {
+                buffer = ByteBuffer.allocateDirect(buffer.capacity() * 2);
+            }
+        }
+    }
+
+    /**
+     * Encodes msg at the position of out.
+     *
+     * @throws BufferOverflowException if out doesn't have room for the message, its position is then undefined
+     */
+    public void encode(NetworkMessage msg, ByteBuffer out) {
+        if (msg instanceof WorkRequest) {
+            WorkRequest request = (WorkRequest) msg;
+            out.put(WORK_REQUEST);
+            writeWorker(out, request.upWorker);
+            writeWorker(out, request.downWorker);
+            writeWorker(out, request.requestingWorker);
+            writeVarint(out, request.hops);
+            out.put(request.directed ? (byte) 1 : (byte) 0);
+            writeVarint(out, request.sequence);
+        } else if (msg instanceof WorkResponse) {
+            WorkResponse response = (WorkResponse) msg;
+            out.put(WORK_RESPONSE);
+            writeWorker(out, response.respondingWorker);
+            writeVarint(out, response.requestHops);
+            writeWork(out, response.workstack);
+        } else if (msg instanceof NetworkChange) {
+            NetworkChange change = (NetworkChange) msg;
+            out.put(NETWORK_CHANGE);
+            writeWorker(out, change.upWorker);
+            writeWorker(out, change.downWorker);
+            writeWorker(out, change.finalDestination);
+            out.put((byte) change.changeType.ordinal());
+            writeWorker(out, change.notifyingWorker);
+            writeIncumbent(out, change.incumbent);
+            out.put(change.checkpointed ? (byte) 1 : (byte) 0);
+        } else if (msg instanceof WorkAvailable) {
+            WorkAvailable available = (WorkAvailable) msg;
+            out.put(WORK_AVAILABLE);
+            writeWorker(out, available.donor);
+            writeVarint(out, available.requestSequence);
+        } else if (msg instanceof ShutDownNetwork) {
+            out.put(SHUT_DOWN_NETWORK);
+        } else if (msg instanceof ResultMessage) {
+            ResultMessage result = (ResultMessage) msg;
+            out.put(RESULT);
+            out.put((byte) (result.proven ? 1 : 0));
+            writeObject(out, result.result);
+        } else if (msg instanceof TerminationToken) {
+            TerminationToken token = (TerminationToken) msg;
+            out.put(TERMINATION_TOKEN);
+            out.putLong(token.workBalance);
+            out.put(token.black ? (byte) 1 : (byte) 0);
+            out.put(token.checkpointed ? (byte) 1 : (byte) 0);
+            writeIncumbent(out, token.incumbent);
+        } else if (msg instanceof CheckpointNetwork) {
+            out.put(CHECKPOINT_NETWORK);
+            byte[] directory = ((CheckpointNetwork) msg).directory.getBytes(UTF8);
+            writeVarint(out, directory.length);
+            out.put(directory);
+        } else if (msg instanceof Incumbent) {
+            Incumbent incumbent = (Incumbent) msg;
+            out.put(INCUMBENT);
+            out.putLong(incumbent.bound);
+            writeObject(out, incumbent.solution);
+        } else {
+            throw new IllegalArgumentException("Cannot encode the unknown message " + msg);
+        }
+    }
+
+    /**
+     * Decodes one message from the position of in, leaving in positioned after it.
+     */
+    public NetworkMessage decode(ByteBuffer in) {
+        byte tag = in.get();
+        switch (tag) {
+        case WORK_REQUEST: {
+            WorkerId up = readWorker(in);
+            WorkerId down = readWorker(in);
+            WorkerId requester = readWorker(in);
+            int hops = readVarint(in);
+            boolean directed = in.get() != 0;
+            return new WorkRequest(up, down, requester, hops, directed, readVarint(in));
+        }
+        case WORK_RESPONSE: {
+            WorkerId responder = readWorker(in);
+            int requestHops = readVarint(in);
+            return new WorkResponse(responder, readWork(in), requestHops);
+        }
+        case NETWORK_CHANGE: {
+            WorkerId up = readWorker(in);
+            WorkerId down = readWorker(in);
+            WorkerId finalDestination = readWorker(in);
+            ChangeType changeType = ChangeType.values()[in.get()];
+            WorkerId notifyingWorker = readWorker(in);
+            Incumbent incumbent = readIncumbent(in);
+            return new NetworkChange(up, down, finalDestination, changeType, notifyingWorker, incumbent, in.get() != 0);
+        }
+        case WORK_AVAILABLE: {
+            WorkerId donor = readWorker(in);
+            return new WorkAvailable(donor, readVarint(in));
+        }
+        case SHUT_DOWN_NETWORK:
+            return new ShutDownNetwork();
+        case RESULT: {
+            boolean proven = in.get() != 0;
+            return new ResultMessage(readObject(in), proven);
+        }
+        case TERMINATION_TOKEN: {
+            long workBalance = in.getLong();
+            boolean black = in.get() != 0;
+            boolean checkpointed = in.get() != 0;
+            return new TerminationToken(workBalance, black, checkpointed, readIncumbent(in));
+        }
+        case CHECKPOINT_NETWORK: {
+            byte[] directory = new byte[readVarint(in)];
+            in.get(directory);
+            return new CheckpointNetwork(new String(directory, UTF8));
+        }
+        case INCUMBENT: {
+            long bound = in.getLong();
+            return new Incumbent(bound, readObject(in));
+        }
+        default:
+            throw new IllegalArgumentException("Unknown message tag " + tag);
+        }
+    }
+
+    private void writeWorker(ByteBuffer out, WorkerId worker) {
+        writeVarint(out, worker == null ? 0 : workerIds.toIndex(worker) + 1);
+    }
+
+    private WorkerId readWorker(ByteBuffer in) {
+        int index = readVarint(in);
+        return index == 0 ? null : workerIds.fromIndex(index - 1);
+    }
+
+    /**
+     * Writes a non-negative int in seven bit groups, least significant first, with the top bit of each byte set when
+     * more follow.
+     */
+    public static void writeVarint(ByteBuffer out, int value) {
+        if (value < 0) throw new IllegalArgumentException("Varints must not be negative, got " + value);
+        while ((value & ~0x7F) != 0) {
+            out.put((byte) ((value & 0x7F) | 0x80));
+            value >>>= 7;
+        }
+        out.put((byte) value);
+    }
+
+    public static int readVarint(ByteBuffer in) {
+        int value = 0;
+        for (int shift = 0; shift < 32; shift += 7) {
+            byte b = in.get();
+            value |= (b & 0x7F) << shift;
+            if (b >= 0) return value;
+        }
+        throw new IllegalArgumentException("Malformed varint");
+    }
+
+    private static void writeObject(ByteBuffer out, Object object) {
+        byte[] bytes = JavaWorkSerializer.serialise(object);
+        writeVarint(out, bytes.length);
+        out.put(bytes);
+    }
+
+    private static Object readObject(ByteBuffer in) {
+        byte[] bytes = new byte[readVarint(in)];
+        in.get(bytes);
+        return JavaWorkSerializer.deserialise(bytes);
+    }
+
+    private static void writeIncumbent(ByteBuffer out, Incumbent incumbent) {
+        if (incumbent == null) {
+            out.put((byte) 0);
+            return;
+        }
+        out.put((byte) 1);
+        out.putLong(incumbent.bound);
+        writeObject(out, incumbent.solution);
+    }
+
+    private static Incumbent readIncumbent(ByteBuffer in) {
+        if (in.get() == 0) return null;
+        long bound = in.getLong();
+        return new Incumbent(bound, readObject(in));
+    }
+
+    // The length is patched in once the work is written, so the serializer can write straight into out
+    private void writeWork(ByteBuffer out, Object work) {
+        int lengthPosition = out.position();
+        out.putInt(0);
+        workSerializer.write(work, out);
+        out.putInt(lengthPosition, out.position() - lengthPosition - 4);
+    }
+
+    private Object readWork(ByteBuffer in) {
+        int length = in.getInt();
+        int end = in.position() + length;
+        ByteBuffer work = in.slice();
+        work.limit(length);
+        in.position(end);
+        return workSerializer.read(work);
+    }
+}
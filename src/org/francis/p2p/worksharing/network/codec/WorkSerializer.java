@@ -0,0 +1,31 @@
+package org.francis.p2p.worksharing.network.codec;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Writes the work given away by a WorkSharer straight into the buffer a transport sends, and reads it back out of the
+ * buffer it receives, so that shared work crosses between processes without Java serialisation or intermediate
+ * objects. The buffers may be direct.
+ *
+ * One serializer is shared by every worker using a transport, so it must be thread safe. Without one the work is
+ * written by a JavaWorkSerializer.
+ */
+public interface WorkSerializer {
+
+    /**
+     * Writes work from the position of out.
+     *
+     * @throws java.nio.BufferOverflowException if out is too small, the caller will retry with a larger buffer
+     */
+    public abstract void write(Object work, ByteBuffer out);
+
+    /**
+     * Reads work written by write. in holds exactly the bytes that were written, from its position to its limit.
+     *
+     * in is only valid during the call. The transports reuse or release its memory as soon as read returns, NIO
+     * compacting its read buffer, a shared memory ring handing the bytes back to its writer and a Checkpoint closing
+     * its mapping, so the work returned must copy out everything it needs. It must not keep in, or any slice, duplicate
+     * or view of it, or the work will be silently overwritten.
+     */
+    public abstract Object read(ByteBuffer in);
+}
@@ -0,0 +1,13 @@
+package org.francis.p2p.worksharing.network.codec;
+
+import org.francis.p2p.worksharing.network.WorkerId;
+
+/**
+ * Maps the worker ids of a network to and from small non-negative ints, which the MessageCodec writes as varints.
+ */
+public interface WorkerIdCodec {
+
+    public abstract int toIndex(WorkerId worker);
+
+    public abstract WorkerId fromIndex(int index);
+}
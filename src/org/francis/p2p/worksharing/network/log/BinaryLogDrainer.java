@@ -0,0 +1,46 @@
+package org.francis.p2p.worksharing.network.log;
+
+import java.io.IOException;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * A single daemon thread, shared by every BinaryNetworkLog in the JVM, which writes the logged records out to their
+ * files. It is started when the first log is opened.
+ */
+class BinaryLogDrainer implements Runnable {
+
+    private static final long DRAIN_INTERVAL = TimeUnit.MILLISECONDS.toNanos(10);
+
+    private static final CopyOnWriteArrayList<BinaryNetworkLog> logs = new CopyOnWriteArrayList<BinaryNetworkLog>();
+    private static Thread drainer;
+
+    static synchronized void register(BinaryNetworkLog log) {
+        logs.add(log);
+        if (drainer == null) {
+            drainer = new Thread(new BinaryLogDrainer(), "BinaryLogDrainer");
+            drainer.setDaemon(true);
+            drainer.start();
+        }
+    }
+
+    static void deregister(BinaryNetworkLog log) {
+        logs.remove(log);
+    }
+
+    @Override
+    public void run() {
+        while (true) {
+            for (BinaryNetworkLog log : logs) {
+                try {
+                    log.drain();
+                } catch (IOException e) {
+                    e.printStackTrace();
+                    logs.remove(log);
+                }
+            }
+            LockSupport.parkNanos(DRAIN_INTERVAL);
+        }
+    }
+}
@@ -0,0 +1,104 @@
+package org.francis.p2p.worksharing.network.log;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.RandomAccessFile;
+import java.io.Writer;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+
+import org.francis.p2p.worksharing.network.log.BinaryNetworkLog.LogEvent;
+
+/**
+ * Renders a file written by a BinaryNetworkLog in the text format written by a TextNetworkLog.
+ *
+ * Usage: BinaryLogRenderer worker.blog [worker.log]. Without an output file the text is written to standard out.
+ */
+public class BinaryLogRenderer {
+
+    public static void main(String[] args) throws IOException {
+        if (args.length < 1 || args.length > 2) {
+            System.err.println("Usage: BinaryLogRenderer <binary log> [text log]");
+            System.exit(1);
+        }
+        Writer out = args.length == 2 ? new FileWriter(args[1]) : new OutputStreamWriter(System.out);
+        BufferedWriter writer = new BufferedWriter(out);
+        render(new File(args[0]), writer);
+        writer.close();
+    }
+
+    public static void render(File binaryLog, Writer out) throws IOException {
+        RandomAccessFile file = new RandomAccessFile(binaryLog, "r");
+        try {
+            MappedByteBuffer in = file.getChannel().map(FileChannel.MapMode.READ_ONLY, 0, file.length());
+            if (in.getInt() != BinaryNetworkLog.MAGIC) throw new IOException(binaryLog + " is not a binary network log.");
+            int version = in.getInt();
+            if (version != BinaryNetworkLog.VERSION) throw new IOException("Unsupported binary network log version " + version);
+            long recordCount = in.getLong();
+            long dictionaryOffset = in.getLong();
+            long dropped = in.getLong();
+            String[] dictionary = readDictionary(in, (int) dictionaryOffset);
+            String self = dictionary[0];
+            in.position(BinaryNetworkLog.HEADER_SIZE);
+            LogEvent[] events = LogEvent.values();
+            for (long r = 0; r < recordCount; r++) {
+                long time = in.getLong();
+                LogEvent event = events[in.getInt()];
+                String entry = dictionary[in.getInt()];
+                long value = in.getLong();
+                renderRecord(out, time, event, entry, value, self);
+            }
+            if (dropped > 0) {
+                out.write(dropped + " log entries were dropped because the log could not keep up");
+                out.write(System.getProperty("line.separator"));
+            }
+        } finally {
+            file.close();
+        }
+    }
+
+    private static String[] readDictionary(ByteBuffer in, int dictionaryOffset) {
+        in.position(dictionaryOffset);
+        String[] dictionary = new String[in.getInt()];
+        for (int i = 0; i < dictionary.length; i++) {
+            byte[] entry = new byte[in.getInt()];
+            in.get(entry);
+            dictionary[i] = new String(entry, BinaryNetworkLog.UTF8);
+        }
+        return dictionary;
+    }
+
+    private static void renderRecord(Writer out, long time, LogEvent event, String entry, long value, String self) throws IOException {
+        switch (event) {
+            case START:
+                timeStamped(out, time, entry + "\n" + "Pause time in milliseconds\n");
+                break;
+            case MANAGEMENT_TIME:
+                timeStamped(out, time, Long.toString(value) + "\n");
+                break;
+            case WORK_REQUEST:
+                timeStamped(out, time, "Making work request");
+                break;
+            case POISON_WORK_REQUEST:
+                timeStamped(out, time, "Received poison work request");
+                break;
+            case WORK_RESPONSE:
+                timeStamped(out, time, entry + "->" + self + "\n");
+                break;
+            case MODEL_FOUND:
+                out.write("Satisfying model found");
+                break;
+        }
+    }
+
+    private static void timeStamped(Writer out, long time, String msg) throws IOException {
+        out.write(Long.toString(time));
+        out.write(" : ");
+        out.write(msg);
+        out.write(System.getProperty("line.separator"));
+    }
+}
@@ -0,0 +1,231 @@
+package org.francis.p2p.worksharing.network.log;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLongFieldUpdater;
+
+import org.francis.p2p.worksharing.network.WorkerId;
+
+/**
+ * Logs fixed size binary records into a ring buffer owned by the worker, which the BinaryLogDrainer thread writes out to
+ * the file self.blog in the background. Logging an entry never blocks, never does any I/O and doesn't allocate, if the
+ * ring is full the entry is dropped and counted. BinaryLogRenderer turns the file back into the text that a
+ * TextNetworkLog would have written.
+ *
+ * The file is a header, the records in the order they were logged and a dictionary of the strings the records refer to.
+ * <pre>
+ * header     : int MAGIC, int VERSION, long recordCount, long dictionaryOffset, long droppedRecords
+ * record     : long time, int event, int dictionaryIndex, long value
+ * dictionary : int count, (int length, UTF-8 bytes) * count
+ * </pre>
+ * Dictionary entry 0 is the name of the worker being logged.
+ */
+public class BinaryNetworkLog implements NetworkLog {
+
+    public enum LogEvent {
+        START, MANAGEMENT_TIME, WORK_REQUEST, POISON_WORK_REQUEST, WORK_RESPONSE, MODEL_FOUND
+    };
+
+    static final int MAGIC = 0x50325042;
+    static final int VERSION = 1;
+    static final int HEADER_SIZE = 32;
+    static final int RECORD_SIZE = 24;
+    static final Charset UTF8 = Charset.forName("UTF-8");
+
+    public static final int DEFAULT_CAPACITY = 4096;
+
+    private static final int FIELDS = 3;
+    private static final AtomicLongFieldUpdater<BinaryNetworkLog> HEAD = AtomicLongFieldUpdater.newUpdater(BinaryNetworkLog.class, "head");
+
+    // Only touched by the worker
+    private final long[] records;
+    private final int mask;
+    private final Map<WorkerId, Integer> workerIndices;
+    private final List<String> dictionary;
+    private long dropped;
+    private volatile long head;
+    private volatile boolean closed;
+
+    // Only touched while holding the lock on this log
+    private volatile long tail;
+    private final FileChannel channel;
+    private final ByteBuffer buffer;
+    private long recordCount;
+
+    private BinaryNetworkLog(FileChannel channel, String self, int capacity) {
+        int size = Integer.highestOneBit(Math.max(capacity, 2) - 1) << 1;
+        this.records = new long[size * FIELDS];
+        this.mask = size - 1;
+        this.workerIndices = new HashMap<WorkerId, Integer>();
+        this.dictionary = new ArrayList<String>();
+        this.dictionary.add(self);
+        this.channel = channel;
+        this.buffer = ByteBuffer.allocateDirect(Math.min(size, 1024) * RECORD_SIZE);
+    }
+
+    public static BinaryNetworkLog open(String logFilePath, String self) {
+        return open(logFilePath, self, DEFAULT_CAPACITY);
+    }
+
+    /**
+     * Creates the log file self.blog in logFilePath, replacing any earlier one. Returns null if logFilePath is null or
+     * the file can't be created.
+     *
+     * @param capacity the number of records the ring can hold before entries are dropped, rounded up to a power of two
+     */
+    public static BinaryNetworkLog open(String logFilePath, String self, int capacity) {
+        if (logFilePath == null) return null;
+        File newLogFile = new File(logFilePath + "/" + self + ".blog");
+        if (newLogFile.exists())
+            newLogFile.delete();
+        try {
+            FileChannel channel = new RandomAccessFile(newLogFile, "rw").getChannel();
+            channel.position(HEADER_SIZE);
+            BinaryNetworkLog log = new BinaryNetworkLog(channel, self, capacity);
+            BinaryLogDrainer.register(log);
+            return log;
+        } catch (IOException e) {
+            System.out.println(newLogFile.getAbsolutePath());
+            e.printStackTrace();
+            return null;
+        }
+    }
+
+    @Override
+    public void logStart(String description) {
+        dictionary.add(description);
+        record(LogEvent.START, dictionary.size() - 1, 0);
+    }
+
+    @Override
+    public void logManagementTime(long elapsedTime) {
+        record(LogEvent.MANAGEMENT_TIME, 0, elapsedTime);
+    }
+
+    @Override
+    public void logWorkRequest() {
+        record(LogEvent.WORK_REQUEST, 0, 0);
+    }
+
+    @Override
+    public void logPoisonWorkRequest() {
+        record(LogEvent.POISON_WORK_REQUEST, 0, 0);
+    }
+
+    @Override
+    public void logWorkResponse(WorkerId respondingWorker) {
+        record(LogEvent.WORK_RESPONSE, dictionaryIndex(respondingWorker), 0);
+    }
+
+    @Override
+    public void logModelFound() {
+        record(LogEvent.MODEL_FOUND, 0, 0);
+    }
+
+    private int dictionaryIndex(WorkerId worker) {
+        Integer index = workerIndices.get(worker);
+        if (index == null) {
+            dictionary.add(worker.toString());
+            index = Integer.valueOf(dictionary.size() - 1);
+            workerIndices.put(worker, index);
+        }
+        return index.intValue();
+    }
+
+    private void record(LogEvent event, int dictionaryIndex, long value) {
+        if (closed) return;
+        long h = head;
+        if (h - tail > mask) {
+            dropped++;
+            return;
+        }
+        int i = (int) (h & mask) * FIELDS;
+        records[i] = System.currentTimeMillis();
+        records[i + 1] = ((long) event.ordinal() << 32) | (dictionaryIndex & 0xFFFFFFFFL);
+        records[i + 2] = value;
+        HEAD.lazySet(this, h + 1);
+    }
+
+    /**
+     * Writes every record logged so far to the file. Called by the BinaryLogDrainer, and by the worker when it closes the
+     * log.
+     */
+    synchronized void drain() throws IOException {
+        if (!channel.isOpen()) return;
+        long h = head;
+        long t = tail;
+        while (t < h) {
+            int i = (int) (t & mask) * FIELDS;
+            buffer.putLong(records[i]);
+            buffer.putInt((int) (records[i + 1] >>> 32));
+            buffer.putInt((int) records[i + 1]);
+            buffer.putLong(records[i + 2]);
+            t++;
+            if (!buffer.hasRemaining()) {
+                tail = t;
+                writeBuffer();
+            }
+        }
+        tail = t;
+        writeBuffer();
+    }
+
+    private void writeBuffer() throws IOException {
+        buffer.flip();
+        recordCount += buffer.remaining() / RECORD_SIZE;
+        while (buffer.hasRemaining()) {
+            channel.write(buffer);
+        }
+        buffer.clear();
+    }
+
+    @Override
+    public void close() {
+        if (closed) return;
+        closed = true;
+        BinaryLogDrainer.deregister(this);
+        try {
+            synchronized (this) {
+                drain();
+                writeDictionaryAndHeader();
+                channel.close();
+            }
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+    }
+
+    private void writeDictionaryAndHeader() throws IOException {
+        long dictionaryOffset = channel.position();
+        int size = 4;
+        byte[][] encoded = new byte[dictionary.size()][];
+        for (int i = 0; i < encoded.length; i++) {
+            encoded[i] = dictionary.get(i).getBytes(UTF8);
+            size += 4 + encoded[i].length;
+        }
+        ByteBuffer out = ByteBuffer.allocate(size);
+        out.putInt(encoded.length);
+        for (byte[] entry : encoded) {
+            out.putInt(entry.length);
+            out.put(entry);
+        }
+        out.flip();
+        while (out.hasRemaining()) {
+            channel.write(out);
+        }
+        ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+        header.putInt(MAGIC).putInt(VERSION).putLong(recordCount).putLong(dictionaryOffset).putLong(dropped);
+        header.flip();
+        while (header.hasRemaining()) {
+            channel.write(header, header.position());
+        }
+    }
+}
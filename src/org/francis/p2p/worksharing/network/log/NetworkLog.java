@@ -0,0 +1,24 @@
+package org.francis.p2p.worksharing.network.log;
+
+import org.francis.p2p.worksharing.network.WorkerId;
+
+/**
+ * Records what a single worker's NetworkManager does. Every call is made by the worker's own thread, and nothing is
+ * logged once the log has been closed.
+ */
+public interface NetworkLog {
+
+    public abstract void logStart(String description);
+
+    public abstract void logManagementTime(long elapsedTime);
+
+    public abstract void logWorkRequest();
+
+    public abstract void logPoisonWorkRequest();
+
+    public abstract void logWorkResponse(WorkerId respondingWorker);
+
+    public abstract void logModelFound();
+
+    public abstract void close();
+}
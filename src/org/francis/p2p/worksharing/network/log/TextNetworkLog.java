@@ -0,0 +1,107 @@
+package org.francis.p2p.worksharing.network.log;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.util.Date;
+
+import org.francis.p2p.worksharing.network.WorkerId;
+
+/**
+ * Writes each log entry straight to a text file, flushing after every entry.
+ */
+public class TextNetworkLog implements NetworkLog {
+
+    private final String self;
+    private BufferedWriter logFileWriter;
+
+    private TextNetworkLog(String self, BufferedWriter logFileWriter) {
+        this.self = self;
+        this.logFileWriter = logFileWriter;
+    }
+
+    /**
+     * Creates the log file self.log in logFilePath, replacing any earlier one. Returns null if logFilePath is null or
+     * the file can't be created.
+     */
+    public static TextNetworkLog open(String logFilePath, String self) {
+        BufferedWriter logFileWriter = generateLogFile(logFilePath, self + ".log");
+        if (logFileWriter == null) return null;
+        return new TextNetworkLog(self, logFileWriter);
+    }
+
+    private static BufferedWriter generateLogFile(String logFilePath, String logName) {
+        if (logFilePath == null) return null;
+        File newLogFile = new File(logFilePath + "/" + logName);
+        if (newLogFile.exists())
+            newLogFile.delete();
+        try {
+            newLogFile.createNewFile();
+            return new BufferedWriter(new FileWriter(newLogFile));
+        } catch (IOException e) {
+            System.out.println(newLogFile.getAbsolutePath());
+            e.printStackTrace();
+            return null;
+        }
+    }
+
+    @Override
+    public void logStart(String description) {
+        log(description+"\n"+"Pause time in milliseconds\n",true);
+    }
+
+    @Override
+    public void logManagementTime(long elapsedTime) {
+        log(Long.toString(elapsedTime)+"\n",true);
+    }
+
+    @Override
+    public void logWorkRequest() {
+        log("Making work request", true);
+    }
+
+    @Override
+    public void logPoisonWorkRequest() {
+        log("Received poison work request",true);
+    }
+
+    @Override
+    public void logWorkResponse(WorkerId respondingWorker) {
+        log(respondingWorker+"->"+self+"\n",true);
+    }
+
+    @Override
+    public void logModelFound() {
+        log("Satisfying model found", false);
+    }
+
+    private void log(String msg, boolean timeStamped) {
+        if (logFileWriter == null) return;
+        try {
+            Date date = new Date();
+            if (timeStamped) {
+                logFileWriter.append(Long.toString(date.getTime()));
+                logFileWriter.append(" : ");
+            }
+            logFileWriter.append(msg);
+            if (timeStamped)
+                logFileWriter.newLine();
+            logFileWriter.flush();
+        } catch (IOException e) {
+            e.printStackTrace();
+            close();
+        }
+    }
+
+    @Override
+    public void close() {
+        if (logFileWriter == null) return;
+        try {
+            logFileWriter.close();
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+        logFileWriter = null;
+    }
+}
@@ -0,0 +1,17 @@
+package org.francis.p2p.worksharing.network.message;
+
+/**
+ * Prompts each receiving worker to stop searching and write the work it has left, and any work it is sent from then on,
+ * to a checkpoint file in directory. Once every worker has done so the network runs out of work and shuts down as if
+ * the search space had been exhausted.
+ */
+public class CheckpointNetwork implements NetworkMessage {
+
+    private static final long serialVersionUID = -6170870532914435710L;
+
+    public final String directory;
+
+    public CheckpointNetwork(String directory) {
+        this.directory = directory;
+    }
+}
@@ -0,0 +1,24 @@
+package org.francis.p2p.worksharing.network.message;
+
+/**
+ * The best solution found so far by a network searching for an optimum, and its bound, the cost the search is trying to
+ * minimise. Broadcast between the nodes of a network as it improves, and carried by NetworkChange decreases and the
+ * TerminationToken so the worker which finds the network exhausted has heard of every worker's best solution. Shared by
+ * every worker which has heard of it, so the solution must not be changed once it has been published.
+ */
+public class Incumbent implements NetworkMessage {
+
+    private static final long serialVersionUID = -3418873606452271920L;
+
+    public final long bound;
+    public final Object solution;
+
+    public Incumbent(long bound, Object solution) {
+        this.bound = bound;
+        this.solution = solution;
+    }
+
+    public boolean isBetterThan(Incumbent other) {
+        return other == null || bound < other.bound;
+    }
+}
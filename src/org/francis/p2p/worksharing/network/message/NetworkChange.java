@@ -16,15 +16,23 @@ public class NetworkChange extends PropagatableMessage {
     
     public final ChangeType changeType;
     public final WorkerId notifyingWorker;
+    public final Incumbent incumbent; // The best solution the notifying worker knew of, null unless we are optimising
+    public final boolean checkpointed; // Whether the notifying worker, or any worker it heard from, wrote work to a checkpoint, only set on a decrease
     
     public NetworkChange(WorkerId upWorker, WorkerId downWorker, WorkerId finalDestination, ChangeType notification, WorkerId notifyingWorker) {
+        this(upWorker,downWorker,finalDestination,notification,notifyingWorker,null,false);
+    }
+    
+    public NetworkChange(WorkerId upWorker, WorkerId downWorker, WorkerId finalDestination, ChangeType notification, WorkerId notifyingWorker, Incumbent incumbent, boolean checkpointed) {
         super(upWorker,downWorker,finalDestination);
         this.changeType = notification;
         this.notifyingWorker = notifyingWorker;
+        this.incumbent = incumbent;
+        this.checkpointed = checkpointed;
     }
 
     @Override
     public PropagatableMessage constructNew(WorkerId upWorker, WorkerId downWorker, WorkerId finalDestination) {
-        return new NetworkChange(upWorker,downWorker,finalDestination,this.changeType,this.notifyingWorker);
+        return new NetworkChange(upWorker,downWorker,finalDestination,this.changeType,this.notifyingWorker,this.incumbent,this.checkpointed);
     }
 }
\ No newline at end of file
@@ -4,9 +4,15 @@ public class ResultMessage implements NetworkMessage {
 
     private static final long serialVersionUID = -897856362215972750L;
     public final Object result;
+    public final boolean proven; // False if some of the search space was written to a checkpoint rather than searched
 
     public ResultMessage(Object result) {
+        this(result, true);
+    }
+
+    public ResultMessage(Object result, boolean proven) {
         super();
         this.result = result;
+        this.proven = proven;
     }
 }
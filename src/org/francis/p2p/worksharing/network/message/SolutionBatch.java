@@ -0,0 +1,18 @@
+package org.francis.p2p.worksharing.network.message;
+
+import java.util.List;
+
+/**
+ * Solutions found by one worker of a network enumerating every solution, sent to the SMPMessageManager's bounded
+ * solution channel a batch at a time rather than one by one.
+ */
+public class SolutionBatch implements NetworkMessage {
+
+    private static final long serialVersionUID = 2383069434262513641L;
+
+    public final List<Object> solutions;
+
+    public SolutionBatch(List<Object> solutions) {
+        this.solutions = solutions;
+    }
+}
@@ -0,0 +1,29 @@
+package org.francis.p2p.worksharing.network.message;
+
+/**
+ * The token passed around the workers by TOKEN termination detection. It carries the sum of the work balances of the
+ * workers it has visited, the number of WorkResponses each has sent less the number it has received, and whether any of
+ * them received work since the token last passed through them. It also carries whether any of them has written work
+ * to a checkpoint, so the worker finding the network exhausted knows it wasn't searched, and when the network is
+ * optimising the best solution known to the workers it has visited.
+ */
+public class TerminationToken implements NetworkMessage {
+
+    private static final long serialVersionUID = 3017546823402218415L;
+
+    public final long workBalance;
+    public final boolean black;
+    public final boolean checkpointed;
+    public final Incumbent incumbent; // Null unless we are optimising
+
+    public TerminationToken(long workBalance, boolean black) {
+        this(workBalance, black, false, null);
+    }
+
+    public TerminationToken(long workBalance, boolean black, boolean checkpointed, Incumbent incumbent) {
+        this.workBalance = workBalance;
+        this.black = black;
+        this.checkpointed = checkpointed;
+        this.incumbent = incumbent;
+    }
+}
@@ -0,0 +1,20 @@
+package org.francis.p2p.worksharing.network.message;
+
+import org.francis.p2p.worksharing.network.WorkerId;
+
+/**
+ * Sent by a worker which now has work to share to a hungry worker whose request it previously couldn't serve. It is
+ * only a hint, the hungry worker must still request the work and it may already have been given to someone else.
+ */
+public class WorkAvailable implements NetworkMessage {
+
+    private static final long serialVersionUID = -2280347127339856721L;
+
+    public final WorkerId donor;
+    public final int requestSequence; // The sequence of the request which told the donor the worker was hungry
+
+    public WorkAvailable(WorkerId donor, int requestSequence) {
+        this.donor = donor;
+        this.requestSequence = requestSequence;
+    }
+}
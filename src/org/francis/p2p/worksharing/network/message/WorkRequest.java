@@ -13,14 +13,33 @@ public class WorkRequest extends PropagatableMessage {
     private static final long serialVersionUID = 7686768874096040365L;
     
     public final WorkerId requestingWorker;
+    public final int hops; // The number of times this request has been passed on since it was sent
+    public final boolean directed; // Sent straight to chosen workers rather than walked around the chain
+    public final int sequence; // Counts the requests made by the requester, from 0 to Integer.MAX_VALUE and round again, a directed request keeps its number when it falls back to the chain
 
-    public WorkRequest(WorkerId upWorker, WorkerId downWorker, WorkerId finalDestination) {
+    public WorkRequest(WorkerId upWorker, WorkerId downWorker, WorkerId finalDestination, int sequence) {
+        this(upWorker,downWorker,finalDestination,0,false,sequence);
+    }
+
+    public WorkRequest(WorkerId upWorker, WorkerId downWorker, WorkerId finalDestination, int hops, boolean directed, int sequence) {
         super(upWorker,downWorker,finalDestination);
         this.requestingWorker = finalDestination;
+        this.hops = hops;
+        this.directed = directed;
+        this.sequence = sequence;
+    }
+
+    /**
+     * Whether the request numbered sequence was made before the one numbered other, by the same requester. Sequences
+     * wrap round to 0 after Integer.MAX_VALUE, so they are compared by their distance apart, which is correct as long
+     * as the two are fewer than 2^30 requests apart.
+     */
+    public static boolean isBefore(int sequence, int other) {
+        return (sequence - other) << 1 < 0; // The difference modulo 2^31, as a signed number
     }
 
     @Override
     public PropagatableMessage constructNew(WorkerId upWorker, WorkerId downWorker, WorkerId finalDestination) {
-        return new WorkRequest(upWorker,downWorker,finalDestination);
+        return new WorkRequest(upWorker,downWorker,finalDestination,hops+1,directed,sequence);
     }
 }
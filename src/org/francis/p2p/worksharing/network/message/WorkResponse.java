@@ -15,9 +15,15 @@ public class WorkResponse implements NetworkMessage, Serializable {
 
     public final WorkerId respondingWorker;
     public final Object workstack;
+    public final int requestHops; // The hops the request made before it was served
     
     public WorkResponse(WorkerId respondingWorker, Object workstack) {
+        this(respondingWorker,workstack,0);
+    }
+    
+    public WorkResponse(WorkerId respondingWorker, Object workstack, int requestHops) {
         this.respondingWorker = respondingWorker;
         this.workstack = workstack;
+        this.requestHops = requestHops;
     }
 }
\ No newline at end of file
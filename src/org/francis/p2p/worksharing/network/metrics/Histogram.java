@@ -0,0 +1,36 @@
+package org.francis.p2p.worksharing.network.metrics;
+
+/**
+ * A histogram of non-negative values with power of two buckets, bucket b holds the values in [2^(b-1), 2^b). It is
+ * updated by a single worker thread and may be read from any thread through snapshot().
+ */
+public class Histogram {
+
+    private static final int BUCKETS = 64;
+
+    private final long[] buckets;
+    private long sum;
+    private long max;
+    private volatile long count; // Written last so a reader which sees a count sees the values counted
+
+    public Histogram() {
+        this.buckets = new long[BUCKETS];
+    }
+
+    public void record(long value) {
+        if (value < 0) value = 0;
+        buckets[bucket(value)]++;
+        sum += value;
+        if (value > max) max = value;
+        count = count + 1;
+    }
+
+    private static int bucket(long value) {
+        return BUCKETS - Long.numberOfLeadingZeros(value);
+    }
+
+    public HistogramSnapshot snapshot() {
+        long count = this.count;
+        return new HistogramSnapshot(count, sum, max, buckets.clone());
+    }
+}
@@ -0,0 +1,63 @@
+package org.francis.p2p.worksharing.network.metrics;
+
+/**
+ * An immutable copy of a Histogram. Percentiles are estimated from the buckets and so are only accurate to within a
+ * factor of two.
+ */
+public class HistogramSnapshot {
+
+    private final long count;
+    private final long sum;
+    private final long max;
+    private final long[] buckets;
+
+    HistogramSnapshot(long count, long sum, long max, long[] buckets) {
+        this.count = count;
+        this.sum = sum;
+        this.max = max;
+        this.buckets = buckets;
+    }
+
+    public long getCount() {
+        return count;
+    }
+
+    public long getSum() {
+        return sum;
+    }
+
+    public long getMax() {
+        return max;
+    }
+
+    public double getMean() {
+        return count == 0 ? 0 : (double) sum / count;
+    }
+
+    public long getMedian() {
+        return percentile(0.5);
+    }
+
+    public long get99thPercentile() {
+        return percentile(0.99);
+    }
+
+    /**
+     * Returns the upper bound of the bucket holding the given fraction of the values, capped at the largest value seen.
+     */
+    public long percentile(double fraction) {
+        if (count == 0) return 0;
+        long rank = (long) Math.ceil(fraction * count);
+        long seen = 0;
+        for (int b = 0; b < buckets.length; b++) {
+            seen += buckets[b];
+            if (seen >= rank) return b == 0 ? 0 : Math.min(max, (1L << b) - 1);
+        }
+        return max;
+    }
+
+    @Override
+    public String toString() {
+        return "count=" + count + " mean=" + String.format("%.1f", getMean()) + " median=" + getMedian() + " p99=" + get99thPercentile() + " max=" + max;
+    }
+}
@@ -0,0 +1,130 @@
+package org.francis.p2p.worksharing.network.metrics;
+
+import java.lang.management.ManagementFactory;
+
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+/**
+ * Counts what a single worker does in the work sharing protocol. Every update is made by the worker's own thread, so
+ * each counter has a single writer and updating one is no more than a volatile write. Any thread may take a snapshot.
+ */
+public class WorkerMetrics implements WorkerMetricsMXBean {
+
+    public static final String DOMAIN = "org.francis.p2p.worksharing";
+
+    private final String worker;
+    private volatile long workRequestsSent;
+    private volatile long workRequestsServed;
+    private volatile long poisonRequestsReceived;
+    private volatile long networkIncreasesReceived;
+    private volatile long networkDecreasesReceived;
+    private volatile long networkIncreasesSent;
+    private volatile long networkDecreasesSent;
+    private final Histogram requestHops;
+    private final Histogram requestLatency;
+    private final Histogram hibernationTime;
+    private final Histogram sharedWork;
+
+    public WorkerMetrics(String worker) {
+        this.worker = worker;
+        this.requestHops = new Histogram();
+        this.requestLatency = new Histogram();
+        this.hibernationTime = new Histogram();
+        this.sharedWork = new Histogram();
+    }
+
+    public void workRequestSent() {
+        workRequestsSent = workRequestsSent + 1;
+    }
+
+    public void workRequestServed(int sharedWorkSize) {
+        workRequestsServed = workRequestsServed + 1;
+        sharedWork.record(sharedWorkSize);
+    }
+
+    public void workResponseReceived(int hops, long latency) {
+        requestHops.record(hops);
+        requestLatency.record(latency);
+    }
+
+    public void poisonRequestReceived() {
+        poisonRequestsReceived = poisonRequestsReceived + 1;
+    }
+
+    public void networkIncreaseReceived() {
+        networkIncreasesReceived = networkIncreasesReceived + 1;
+    }
+
+    public void networkDecreaseReceived() {
+        networkDecreasesReceived = networkDecreasesReceived + 1;
+    }
+
+    public void networkIncreaseSent() {
+        networkIncreasesSent = networkIncreasesSent + 1;
+    }
+
+    public void networkDecreaseSent() {
+        networkDecreasesSent = networkDecreasesSent + 1;
+    }
+
+    public void hibernated(long time) {
+        hibernationTime.record(time);
+    }
+
+    @Override
+    public WorkerMetricsSnapshot getSnapshot() {
+        return new WorkerMetricsSnapshot(worker, workRequestsSent, workRequestsServed, poisonRequestsReceived, networkIncreasesReceived, networkDecreasesReceived, networkIncreasesSent, networkDecreasesSent, requestHops.snapshot(), requestLatency.snapshot(), hibernationTime.snapshot(), sharedWork.snapshot());
+    }
+
+    @Override
+    public long getWorkRequestsSent() {
+        return workRequestsSent;
+    }
+
+    @Override
+    public long getWorkRequestsServed() {
+        return workRequestsServed;
+    }
+
+    @Override
+    public long getPoisonRequestsReceived() {
+        return poisonRequestsReceived;
+    }
+
+    @Override
+    public double getMeanRequestHops() {
+        return requestHops.snapshot().getMean();
+    }
+
+    @Override
+    public double getMeanRequestLatencyMicros() {
+        return requestLatency.snapshot().getMean() / 1000;
+    }
+
+    @Override
+    public long getTotalHibernationMillis() {
+        return hibernationTime.snapshot().getSum() / 1000000;
+    }
+
+    public ObjectName objectName() throws JMException {
+        return new ObjectName(DOMAIN + ":type=WorkerMetrics,worker=" + ObjectName.quote(worker));
+    }
+
+    /**
+     * Registers these metrics with the platform MBean server, replacing any earlier registration for the same worker.
+     */
+    public void registerMBean() throws JMException {
+        MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+        ObjectName name = objectName();
+        if (server.isRegistered(name)) server.unregisterMBean(name);
+        server.registerMBean(this, name);
+    }
+
+    public void unregisterMBean() throws JMException {
+        MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+        ObjectName name = objectName();
+        if (server.isRegistered(name)) server.unregisterMBean(name);
+    }
+}
@@ -0,0 +1,21 @@
+package org.francis.p2p.worksharing.network.metrics;
+
+/**
+ * The JMX view of a worker's metrics, registered by WorkerMetrics.registerMBean().
+ */
+public interface WorkerMetricsMXBean {
+
+    public abstract WorkerMetricsSnapshot getSnapshot();
+
+    public abstract long getWorkRequestsSent();
+
+    public abstract long getWorkRequestsServed();
+
+    public abstract long getPoisonRequestsReceived();
+
+    public abstract double getMeanRequestHops();
+
+    public abstract double getMeanRequestLatencyMicros();
+
+    public abstract long getTotalHibernationMillis();
+}
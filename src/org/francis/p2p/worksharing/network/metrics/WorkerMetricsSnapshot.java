@@ -0,0 +1,104 @@
+package org.francis.p2p.worksharing.network.metrics;
+
+/**
+ * An immutable copy of a worker's metrics. Times are in nanoseconds and work sizes are in the units returned by
+ * WorkSharer.sharableWork().
+ */
+public class WorkerMetricsSnapshot {
+
+    private final String worker;
+    private final long workRequestsSent;
+    private final long workRequestsServed;
+    private final long poisonRequestsReceived;
+    private final long networkIncreasesReceived;
+    private final long networkDecreasesReceived;
+    private final long networkIncreasesSent;
+    private final long networkDecreasesSent;
+    private final HistogramSnapshot requestHops;
+    private final HistogramSnapshot requestLatency;
+    private final HistogramSnapshot hibernationTime;
+    private final HistogramSnapshot sharedWork;
+
+    WorkerMetricsSnapshot(String worker, long workRequestsSent, long workRequestsServed, long poisonRequestsReceived, long networkIncreasesReceived, long networkDecreasesReceived, long networkIncreasesSent, long networkDecreasesSent, HistogramSnapshot requestHops, HistogramSnapshot requestLatency, HistogramSnapshot hibernationTime, HistogramSnapshot sharedWork) {
+        this.worker = worker;
+        this.workRequestsSent = workRequestsSent;
+        this.workRequestsServed = workRequestsServed;
+        this.poisonRequestsReceived = poisonRequestsReceived;
+        this.networkIncreasesReceived = networkIncreasesReceived;
+        this.networkDecreasesReceived = networkDecreasesReceived;
+        this.networkIncreasesSent = networkIncreasesSent;
+        this.networkDecreasesSent = networkDecreasesSent;
+        this.requestHops = requestHops;
+        this.requestLatency = requestLatency;
+        this.hibernationTime = hibernationTime;
+        this.sharedWork = sharedWork;
+    }
+
+    public String getWorker() {
+        return worker;
+    }
+
+    public long getWorkRequestsSent() {
+        return workRequestsSent;
+    }
+
+    public long getWorkRequestsServed() {
+        return workRequestsServed;
+    }
+
+    public long getPoisonRequestsReceived() {
+        return poisonRequestsReceived;
+    }
+
+    public long getNetworkIncreasesReceived() {
+        return networkIncreasesReceived;
+    }
+
+    public long getNetworkDecreasesReceived() {
+        return networkDecreasesReceived;
+    }
+
+    public long getNetworkIncreasesSent() {
+        return networkIncreasesSent;
+    }
+
+    public long getNetworkDecreasesSent() {
+        return networkDecreasesSent;
+    }
+
+    /**
+     * The number of workers each satisfied request passed through before it reached the worker which served it.
+     */
+    public HistogramSnapshot getRequestHops() {
+        return requestHops;
+    }
+
+    /**
+     * The time from sending a request to receiving the work which satisfied it.
+     */
+    public HistogramSnapshot getRequestLatency() {
+        return requestLatency;
+    }
+
+    public HistogramSnapshot getHibernationTime() {
+        return hibernationTime;
+    }
+
+    /**
+     * How much sharable work this worker gave away each time it served a request.
+     */
+    public HistogramSnapshot getSharedWork() {
+        return sharedWork;
+    }
+
+    @Override
+    public String toString() {
+        return "worker " + worker + "\n" +
+            "  work requests sent=" + workRequestsSent + " served=" + workRequestsServed + " poison received=" + poisonRequestsReceived + "\n" +
+            "  network changes INC sent=" + networkIncreasesSent + " received=" + networkIncreasesReceived + " DEC sent=" + networkDecreasesSent + " received=" + networkDecreasesReceived + "\n" +
+            "  request hops " + requestHops + "\n" +
+            "  request latency (ns) " + requestLatency + "\n" +
+            "  hibernation time (ns) " + hibernationTime + "\n" +
+            "  shared work " + sharedWork;
+    }
+}
@@ -0,0 +1,85 @@
+package org.francis.p2p.worksharing.network.threshold;
+
+/**
+ * Tunes the threshold so that the work a worker receives lasts some multiple of the time it took to get it. Moving
+ * work is expensive on a slow transport, or when the work is small, and then workers should share less often. When
+ * transfers are cheap workers can share sooner and keep more of the network busy. A higher threshold only makes a
+ * worker wait until it has more to spare, how much of it is given away is still up to its WorkSharer or split policy.
+ *
+ * Exponentially weighted moving averages of the request latency and the work lifetime are kept. Each time received work
+ * runs out their ratio is compared with the target. If the work didn't last long enough the threshold is doubled,
+ * otherwise it is reduced by one. A work request which no worker would serve halves the threshold, as workers holding
+ * on to their work while others starve costs far more than a transfer. The threshold is always kept within
+ * [minThreshold, maxThreshold].
+ *
+ * Every observation is made by the worker as a receiver, but the threshold is the one it applies as a donor. It tunes
+ * its own sharing from what it sees of its peers' sharing, which only works because all workers run the same policy on
+ * similar work and so settle on similar thresholds.
+ */
+public class AdaptiveSharingThreshold implements SharingThreshold {
+
+    public static final int DEFAULT_MIN_THRESHOLD = 1;
+    public static final int DEFAULT_MAX_THRESHOLD = 256;
+    public static final double DEFAULT_TARGET_RATIO = 4;
+    private static final double WEIGHT = 0.25; // The weight given to each new observation
+
+    private final int minThreshold;
+    private final int maxThreshold;
+    private final double targetRatio;
+    private int threshold;
+    private double latency = -1;
+    private double lifetime = -1;
+
+    public AdaptiveSharingThreshold(int initialThreshold) {
+        this(initialThreshold, DEFAULT_MIN_THRESHOLD, DEFAULT_MAX_THRESHOLD, DEFAULT_TARGET_RATIO);
+    }
+
+    /**
+     * @param targetRatio how many times longer than the request latency received work should last
+     */
+    public AdaptiveSharingThreshold(int initialThreshold, int minThreshold, int maxThreshold, double targetRatio) {
+        if (minThreshold < 1 || maxThreshold < minThreshold)
+            throw new IllegalArgumentException("Thresholds must satisfy 1 <= min <= max, got min " + minThreshold + " max " + maxThreshold);
+        if (targetRatio <= 0)
+            throw new IllegalArgumentException("The target ratio must be positive, got " + targetRatio);
+        this.minThreshold = minThreshold;
+        this.maxThreshold = maxThreshold;
+        this.targetRatio = targetRatio;
+        this.threshold = Math.max(minThreshold, Math.min(maxThreshold, initialThreshold));
+    }
+
+    @Override
+    public int threshold() {
+        return threshold;
+    }
+
+    @Override
+    public void workReceived(long requestLatency) {
+        latency = average(latency, requestLatency);
+    }
+
+    @Override
+    public void workExhausted(long workLifetime) {
+        lifetime = average(lifetime, workLifetime);
+        if (latency < 0) return;
+        if (lifetime < latency * targetRatio) {
+            threshold = (int) Math.min(maxThreshold, threshold * 2L);
+        } else {
+            threshold = Math.max(minThreshold, threshold - 1);
+        }
+    }
+
+    @Override
+    public void workRequestFailed() {
+        threshold = Math.max(minThreshold, threshold / 2);
+    }
+
+    private static double average(double average, long value) {
+        return average < 0 ? value : average + WEIGHT * (value - average);
+    }
+
+    @Override
+    public String toString() {
+        return "Adaptive(" + threshold + " in [" + minThreshold + ", " + maxThreshold + "])";
+    }
+}
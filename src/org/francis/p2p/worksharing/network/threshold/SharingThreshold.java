@@ -0,0 +1,29 @@
+package org.francis.p2p.worksharing.network.threshold;
+
+/**
+ * Decides how much sharable work a worker must have before it will serve a work request. It is told how long each of
+ * the worker's own requests took to be answered, how long the work it received lasted and when no worker would share
+ * with it, and may use these to tune the threshold as the search runs. Only called by the worker thread.
+ */
+public interface SharingThreshold {
+
+    /**
+     * A request is served when WorkSharer.sharableWork() is at least this value.
+     */
+    public abstract int threshold();
+
+    /**
+     * @param requestLatency nanoseconds from sending a work request to receiving the work
+     */
+    public abstract void workReceived(long requestLatency);
+
+    /**
+     * @param workLifetime nanoseconds from receiving work to needing more
+     */
+    public abstract void workExhausted(long workLifetime);
+
+    /**
+     * Our work request went all the way round the network without finding a worker willing to share.
+     */
+    public abstract void workRequestFailed();
+}
@@ -0,0 +1,35 @@
+package org.francis.p2p.worksharing.network.threshold;
+
+/**
+ * A threshold which never changes, this is the behaviour of the int workSharingThreshold.
+ */
+public class StaticSharingThreshold implements SharingThreshold {
+
+    private final int threshold;
+
+    public StaticSharingThreshold(int threshold) {
+        this.threshold = threshold;
+    }
+
+    @Override
+    public int threshold() {
+        return threshold;
+    }
+
+    @Override
+    public void workReceived(long requestLatency) {
+    }
+
+    @Override
+    public void workExhausted(long workLifetime) {
+    }
+
+    @Override
+    public void workRequestFailed() {
+    }
+
+    @Override
+    public String toString() {
+        return "Static(" + threshold + ")";
+    }
+}
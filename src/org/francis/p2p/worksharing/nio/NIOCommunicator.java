@@ -0,0 +1,37 @@
+package org.francis.p2p.worksharing.nio;
+
+import org.francis.p2p.worksharing.network.NetworkManager.RequestStrategy;
+import org.francis.p2p.worksharing.smp.SMPCommunicator;
+import org.francis.p2p.worksharing.smp.SMPWorkerId;
+import org.francis.p2p.worksharing.smp.Topology;
+
+/**
+ * A Communicator for a worker in a network spread over several JVMs. Workers are addressed by their id across the whole
+ * network, so the chain, topologies and request strategies of the SMPCommunicator work unchanged, and it is the
+ * NIOMessageManager which decides whether a message stays in this JVM or goes over a socket. Delivery isn't causal, so
+ * the workers must use TOKEN termination, which their NetworkManagers do by default.
+ */
+public class NIOCommunicator extends SMPCommunicator {
+
+    public NIOCommunicator(NIOMessageManager messageManager, SMPWorkerId topWorker, SMPWorkerId bottomWorker, SMPWorkerId self) {
+        super(messageManager,topWorker,bottomWorker,self);
+    }
+
+    public NIOCommunicator(NIOMessageManager messageManager, SMPWorkerId topWorker, SMPWorkerId bottomWorker, SMPWorkerId self, RequestStrategy requestStrategy, int maxAttempts) {
+        super(messageManager,topWorker,bottomWorker,self,requestStrategy,maxAttempts);
+    }
+
+    public NIOCommunicator(NIOMessageManager messageManager, Topology topology, SMPWorkerId self) {
+        super(messageManager,topology,self);
+    }
+
+    public NIOCommunicator(NIOMessageManager messageManager, Topology topology, SMPWorkerId self, RequestStrategy requestStrategy, int maxAttempts) {
+        super(messageManager,topology,self,requestStrategy,maxAttempts);
+    }
+
+    // A message sent over one connection may be overtaken by a message it caused, which took a quicker path
+    @Override
+    public boolean isDeliveryCausal() {
+        return false;
+    }
+}
@@ -0,0 +1,149 @@
+package org.francis.p2p.worksharing.nio;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.SocketChannel;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * The connection to another node. Frames are queued by any thread and written by the selector thread, which also reads
+ * and reassembles the frames arriving from the other node. A frame is an int length followed by that many bytes, the
+ * first four of which are the destination. Frames are direct buffers, so the socket writes them without a copy, and
+ * once written they are pooled for the next frames queued on this connection. Frames come in sizes doubling from
+ * FRAME_SIZE, each pooled apart from the others, so a large frame is reused by the next large message.
+ */
+class NIOConnection {
+
+    private static final int INITIAL_READ_BUFFER = 64 * 1024;
+    static final int FRAME_SIZE = 1024; // The smallest frame, which holds any message but a WorkResponse with a lot of work
+    private static final int MAX_POOLED_FRAME_SIZE = 64 * 1024;
+    private static final int MAX_POOLED_BYTES = 1024 * 1024; // Of every size together
+
+    final int node;
+    final SocketChannel channel;
+    SelectionKey key; // Only accessed by the selector thread
+    private final ConcurrentLinkedQueue<ByteBuffer> outgoing;
+    private final AtomicBoolean writeScheduled; // Set while the selector thread knows there is something to write
+    private final List<ConcurrentLinkedQueue<ByteBuffer>> framePools; // Frames which have been written, indexed by size class
+    private final AtomicInteger pooledBytes; // The capacity of every pooled frame, which is costly to count
+    private ByteBuffer readBuffer; // Only accessed by the selector thread
+
+    NIOConnection(int node, SocketChannel channel) {
+        this.node = node;
+        this.channel = channel;
+        this.outgoing = new ConcurrentLinkedQueue<ByteBuffer>();
+        this.writeScheduled = new AtomicBoolean();
+        this.framePools = new ArrayList<ConcurrentLinkedQueue<ByteBuffer>>();
+        for (int size = FRAME_SIZE; size <= MAX_POOLED_FRAME_SIZE; size *= 2) {
+            framePools.add(new ConcurrentLinkedQueue<ByteBuffer>());
+        }
+        this.pooledBytes = new AtomicInteger();
+        this.readBuffer = ByteBuffer.allocateDirect(INITIAL_READ_BUFFER); // Read into directly, and decoded in place
+    }
+
+    /**
+     * Returns true if the selector thread must be told to write to this connection.
+     */
+    boolean enqueue(ByteBuffer frame) {
+        outgoing.add(frame);
+        return writeScheduled.compareAndSet(false, true);
+    }
+
+    /**
+     * A cleared direct buffer of at least capacity bytes for the next frame to be queued, reusing a frame of that size
+     * which has been written when there is one. Frames larger than MAX_POOLED_FRAME_SIZE are made to measure.
+     */
+    ByteBuffer takeFrame(int capacity) {
+        if (capacity > MAX_POOLED_FRAME_SIZE) return ByteBuffer.allocateDirect(capacity);
+        int sizeClass = sizeClass(capacity);
+        ByteBuffer frame = framePools.get(sizeClass).poll();
+        if (frame == null) return ByteBuffer.allocateDirect(FRAME_SIZE << sizeClass);
+        pooledBytes.addAndGet(-frame.capacity());
+        frame.clear();
+        return frame;
+    }
+
+    /**
+     * Returns a frame taken with takeFrame to the pool, once it has been written or if it wasn't used.
+     */
+    void recycle(ByteBuffer frame) {
+        // A burst of frames is bounded by the work of the network, but we don't hold on to all of them after it
+        if (frame.capacity() > MAX_POOLED_FRAME_SIZE) return;
+        if (pooledBytes.addAndGet(frame.capacity()) > MAX_POOLED_BYTES) {
+            pooledBytes.addAndGet(-frame.capacity());
+            return;
+        }
+        framePools.get(sizeClass(frame.capacity())).add(frame);
+    }
+
+    // The smallest class whose frames, FRAME_SIZE doubled that many times, hold capacity bytes
+    private static int sizeClass(int capacity) {
+        int sizeClass = 0;
+        while (FRAME_SIZE << sizeClass < capacity) {
+            sizeClass++;
+        }
+        return sizeClass;
+    }
+
+    boolean hasPendingWrites() {
+        return !outgoing.isEmpty();
+    }
+
+    /**
+     * Writes as much as the socket will take. Returns true when everything has been written and the selector thread no
+     * longer needs to watch for the connection becoming writable.
+     */
+    boolean write() throws IOException {
+        while (true) {
+            ByteBuffer frame = outgoing.peek();
+            if (frame == null) {
+                writeScheduled.set(false);
+                // A sender which queued a frame after our peek will have scheduled another write if it saw the flag
+                // cleared, otherwise we must carry on with its frame ourselves
+                if (outgoing.isEmpty() || !writeScheduled.compareAndSet(false, true)) return true;
+                continue;
+            }
+            channel.write(frame);
+            if (frame.hasRemaining()) return false;
+            outgoing.poll();
+            recycle(frame);
+        }
+    }
+
+    /**
+     * Reads what is available and hands every complete frame to the message manager. Returns false when the other node
+     * has closed the connection.
+     */
+    boolean read(NIOMessageManager messageManager) throws IOException {
+        if (channel.read(readBuffer) < 0) return false;
+        readBuffer.flip();
+        while (readBuffer.remaining() >= 4) {
+            int length = readBuffer.getInt(readBuffer.position());
+            if (readBuffer.remaining() < 4 + length) break;
+            readBuffer.getInt();
+            int destination = readBuffer.getInt();
+            ByteBuffer payload = readBuffer.slice();
+            payload.limit(length - 4);
+            readBuffer.position(readBuffer.position() + length - 4);
+            messageManager.receiveFrame(destination, payload);
+        }
+        readBuffer.compact();
+        growForNextFrame();
+        return true;
+    }
+
+    private void growForNextFrame() {
+        if (readBuffer.position() < 4) return;
+        int needed = 4 + readBuffer.getInt(0);
+        if (needed <= readBuffer.capacity()) return;
+        ByteBuffer larger = ByteBuffer.allocateDirect(Math.max(needed, readBuffer.capacity() * 2));
+        readBuffer.flip();
+        larger.put(readBuffer);
+        readBuffer = larger;
+    }
+}
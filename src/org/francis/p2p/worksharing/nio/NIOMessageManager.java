@@ -0,0 +1,293 @@
+package org.francis.p2p.worksharing.nio;
+
+import java.io.IOException;
+import java.net.ConnectException;
+import java.net.InetSocketAddress;
+import java.net.SocketTimeoutException;
+import java.nio.BufferOverflowException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+
+import org.francis.p2p.worksharing.network.codec.JavaWorkSerializer;
+import org.francis.p2p.worksharing.network.codec.MessageCodec;
+import org.francis.p2p.worksharing.network.codec.WorkSerializer;
+import org.francis.p2p.worksharing.network.message.CheckpointNetwork;
+import org.francis.p2p.worksharing.network.message.Incumbent;
+import org.francis.p2p.worksharing.network.message.NetworkMessage;
+import org.francis.p2p.worksharing.network.message.ResultMessage;
+import org.francis.p2p.worksharing.smp.SMPMessageManager;
+import org.francis.p2p.worksharing.smp.SMPWorkerId;
+import org.francis.p2p.worksharing.smp.SMPWorkerIdCodec;
+
+/**
+ * An SMPMessageManager for one node of a network spread over several JVMs. Messages to the workers on this node go
+ * straight into their mailboxes, messages to workers on other nodes are encoded with a MessageCodec, framed and queued
+ * for the selector thread to write to the node hosting them. Results, shut downs, checkpoints and improved incumbents
+ * are sent to every node, so every node can wait for the result with receiveResult. Solutions stay on the node which
+ * found them.
+ *
+ * Every pair of nodes shares a single TCP connection, so messages from one worker to another arrive in the order they
+ * were sent. That isn't enough for COUNTING termination, which needs causal delivery across the whole network. A
+ * message from D to H can still be overtaken by one D sent after it to a worker on another node, which that worker
+ * then passes on to H, as the two take different connections. The workers of a network using this transport must use
+ * TOKEN termination, which NIOCommunicators default to.
+ */
+public class NIOMessageManager extends SMPMessageManager {
+
+    static final int RESULT = -1;
+    static final int SHUT_DOWN = -2;
+    static final int CHECKPOINT = -3;
+    static final int INCUMBENT = -4;
+
+    private static final long CONNECT_RETRY = 50;
+
+    private final NIONetwork network;
+    private final int selfNode;
+    private final NIOConnection[] connections; // Indexed by node, null for ourselves
+    private final NIOSelectorLoop selectorLoop;
+    private final Thread selectorThread;
+    private volatile boolean shutDown;
+    private final ThreadLocal<MessageCodec> sendCodecs; // Every worker encodes the messages it sends
+    private final MessageCodec receiveCodec; // Only used by the selector thread
+
+    private NIOMessageManager(NIONetwork network, int selfNode, NIOConnection[] connections, final WorkSerializer workSerializer) throws IOException {
+        super(network.workerCount(), network.localWorkers(selfNode));
+        this.network = network;
+        this.selfNode = selfNode;
+        this.connections = connections;
+        this.sendCodecs = new ThreadLocal<MessageCodec>() {
+            @Override
+            protected MessageCodec initialValue() {
+                return new MessageCodec(new SMPWorkerIdCodec(), workSerializer);
+            }
+        };
+        this.receiveCodec = new MessageCodec(new SMPWorkerIdCodec(), workSerializer);
+        this.selectorLoop = new NIOSelectorLoop(this, connections);
+        this.selectorThread = new Thread(selectorLoop, "nio-selector-" + selfNode);
+        this.selectorThread.setDaemon(true);
+        this.selectorThread.start();
+    }
+
+    /**
+     * Connects this node to every other node in the network, returning once all the connections are made. Every node
+     * must call this, in any order, within timeout milliseconds of each other. Shared work is sent with Java
+     * serialisation.
+     */
+    public static NIOMessageManager connect(NIONetwork network, int selfNode, long timeout) throws IOException {
+        return connect(network, selfNode, timeout, new JavaWorkSerializer());
+    }
+
+    /**
+     * @param workSerializer writes and reads the work given away by the WorkSharers, every node must use the same one
+     */
+    public static NIOMessageManager connect(NIONetwork network, int selfNode, long timeout, WorkSerializer workSerializer) throws IOException {
+        long deadline = System.currentTimeMillis() + timeout;
+        NIOConnection[] connections = new NIOConnection[network.nodeCount()];
+        ServerSocketChannel server = ServerSocketChannel.open();
+        try {
+            server.socket().setReuseAddress(true);
+            server.socket().bind(network.address(selfNode));
+            // We connect to the nodes before us and accept connections from the nodes after us
+            for (int node = 0; node < selfNode; node++) {
+                SocketChannel channel = connectWithRetry(network.address(node), deadline);
+                writeInt(channel, selfNode);
+                connections[node] = newConnection(node, channel);
+            }
+            for (int accepted = selfNode + 1; accepted < network.nodeCount(); accepted++) {
+                server.socket().setSoTimeout((int) Math.max(1, deadline - System.currentTimeMillis()));
+                SocketChannel channel;
+                try {
+                    channel = server.socket().accept().getChannel();
+                } catch (SocketTimeoutException e) {
+                    throw new IOException("Timed out waiting for node connections to node " + selfNode, e);
+                }
+                int node = readInt(channel);
+                if (node <= selfNode || node >= network.nodeCount() || connections[node] != null)
+                    throw new IOException("Unexpected connection from node " + node + " to node " + selfNode);
+                connections[node] = newConnection(node, channel);
+            }
+        } catch (IOException e) {
+            for (NIOConnection connection : connections) {
+                if (connection != null) connection.channel.close();
+            }
+            throw e;
+        } finally {
+            server.close();
+        }
+        return new NIOMessageManager(network, selfNode, connections, workSerializer);
+    }
+
+    private static SocketChannel connectWithRetry(InetSocketAddress address, long deadline) throws IOException {
+        while (true) {
+            SocketChannel channel = SocketChannel.open();
+            try {
+                channel.connect(address);
+                return channel;
+            } catch (ConnectException e) {
+                channel.close();
+                if (System.currentTimeMillis() >= deadline) throw e;
+            }
+            try {
+                Thread.sleep(CONNECT_RETRY); // The other node may not be listening yet
+            } catch (InterruptedException e) {
+                throw new RuntimeException(e); // Right now there is no reason this should be interrupted
+            }
+        }
+    }
+
+    private static NIOConnection newConnection(int node, SocketChannel channel) throws IOException {
+        channel.socket().setTcpNoDelay(true); // Work requests are small and latency bound
+        return new NIOConnection(node, channel);
+    }
+
+    private static void writeInt(SocketChannel channel, int value) throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocate(4);
+        buffer.putInt(value).flip();
+        while (buffer.hasRemaining()) {
+            channel.write(buffer);
+        }
+    }
+
+    private static int readInt(SocketChannel channel) throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocate(4);
+        while (buffer.hasRemaining()) {
+            if (channel.read(buffer) < 0) throw new IOException("Connection closed during the handshake");
+        }
+        buffer.flip();
+        return buffer.getInt();
+    }
+
+    public int selfNode() {
+        return selfNode;
+    }
+
+    public SMPWorkerId[] localWorkers() {
+        return network.localWorkers(selfNode);
+    }
+
+    @Override
+    public void send(SMPWorkerId worker, NetworkMessage msg) {
+        int node = network.nodeOf(worker.getId());
+        if (node == selfNode)
+            super.send(worker, msg);
+        else
+            sendFrame(connections[node], worker.getId(), msg);
+    }
+
+    @Override
+    public void sendResult(ResultMessage result) {
+        super.sendResult(result);
+        broadcastFrame(RESULT, result);
+    }
+
+    @Override
+    public void shutDownNetwork() {
+        shutDown = true;
+        super.shutDownNetwork();
+        broadcastFrame(SHUT_DOWN, null);
+    }
+
+    @Override
+    public void checkpointNetwork(String directory) {
+        super.checkpointNetwork(directory);
+        CheckpointNetwork msg = new CheckpointNetwork(directory);
+        broadcastFrame(CHECKPOINT, msg);
+    }
+
+    /**
+     * Only an incumbent which improves on the one this node knows of is sent to the other nodes, so a worker's
+     * improvements and those it hears of from other nodes are never sent twice.
+     */
+    @Override
+    public boolean publishIncumbent(Incumbent incumbent) {
+        if (!super.publishIncumbent(incumbent)) return false;
+        broadcastFrame(INCUMBENT, incumbent);
+        return true;
+    }
+
+    private void broadcastFrame(int destination, NetworkMessage msg) {
+        for (NIOConnection connection : connections) {
+            if (connection != null) sendFrame(connection, destination, msg);
+        }
+    }
+
+    private void sendFrame(NIOConnection connection, int destination, NetworkMessage msg) {
+        if (connection.enqueue(encode(connection, destination, msg))) selectorLoop.scheduleWrite(connection);
+    }
+
+    // The message is encoded straight into a pooled frame after room for the header, which is filled in once the
+    // length is known
+    private ByteBuffer encode(NIOConnection connection, int destination, NetworkMessage msg) {
+        ByteBuffer frame = connection.takeFrame(NIOConnection.FRAME_SIZE);
+        frame.position(8);
+        if (msg != null) {
+            MessageCodec codec = sendCodecs.get();
+            try {
+                codec.encode(msg, frame);
+            } catch (BufferOverflowException e) {
+                // A large piece of work, encoded once into the codec's own buffer, which grows to fit it and stays grown
+                // for the next, then copied into a pooled frame of its size
+                connection.recycle(frame);
+                ByteBuffer payload = codec.encode(msg);
+                frame = connection.takeFrame(8 + payload.remaining());
+                frame.position(8);
+                frame.put(payload);
+            }
+        }
+        frame.putInt(0, frame.position() - 4).putInt(4, destination).flip();
+        return frame;
+    }
+
+    // Called by the selector thread
+    void receiveFrame(int destination, ByteBuffer payload) {
+        if (destination == SHUT_DOWN) {
+            shutDown = true;
+            super.shutDownNetwork();
+        } else if (destination == CHECKPOINT) {
+            super.checkpointNetwork(((CheckpointNetwork) receiveCodec.decode(payload)).directory);
+        } else if (destination == INCUMBENT) {
+            super.publishIncumbent((Incumbent) receiveCodec.decode(payload));
+        } else if (destination == RESULT) {
+            super.sendResult((ResultMessage) receiveCodec.decode(payload));
+        } else {
+            super.send(new SMPWorkerId(destination), receiveCodec.decode(payload));
+        }
+    }
+
+    // Called by the selector thread, once the network has shut down the other nodes are free to go away. Before then
+    // the work, tokens or result our workers wait for may have been lost with the node, so we stop waiting for them.
+    void connectionClosed(NIOConnection connection, IOException cause) {
+        if (shutDown) return;
+        if (cause == null) cause = new IOException("Node " + connection.node + " closed its connection");
+        failNetwork("Node " + selfNode + " lost its connection to node " + connection.node + " before the network shut down", cause);
+    }
+
+    /**
+     * Waits up to timeout milliseconds for the messages queued for other nodes to be written, then closes every
+     * connection. Should be called once the result has been received.
+     */
+    public void close(long timeout) {
+        long deadline = System.currentTimeMillis() + timeout;
+        // A node can close before the others have heard the network shut down, as they hear it from the node which
+        // found the result over other connections, so we tell them ahead of closing ours
+        shutDown = true;
+        broadcastFrame(SHUT_DOWN, null);
+        try {
+            while (hasPendingWrites() && System.currentTimeMillis() < deadline) {
+                Thread.sleep(1);
+            }
+            selectorLoop.stop();
+            selectorThread.join(Math.max(1, deadline - System.currentTimeMillis()));
+        } catch (InterruptedException e) {
+            throw new RuntimeException(e); // Right now there is no reason this should be interrupted
+        }
+    }
+
+    private boolean hasPendingWrites() {
+        for (NIOConnection connection : connections) {
+            if (connection != null && connection.key.isValid() && connection.hasPendingWrites()) return true;
+        }
+        return false;
+    }
+}
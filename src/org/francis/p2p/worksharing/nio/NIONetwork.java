@@ -0,0 +1,83 @@
+package org.francis.p2p.worksharing.nio;
+
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.francis.p2p.worksharing.smp.SMPWorkerId;
+
+/**
+ * Describes a network of workers spread over several JVMs, called nodes. Each node listens on its own address and
+ * hosts some of the workers, the worker ids run from 0 up to the number of workers across the whole network. Every node
+ * of the network must be given the same NIONetwork.
+ */
+public class NIONetwork {
+
+    private final InetSocketAddress[] nodes;
+    private final int[] workerNodes; // The node hosting each worker, indexed by worker id
+
+    /**
+     * Places workersPerNode workers on each node, worker w is hosted by node w / workersPerNode.
+     */
+    public NIONetwork(InetSocketAddress[] nodes, int workersPerNode) {
+        this(nodes, spread(nodes.length, workersPerNode));
+    }
+
+    /**
+     * @param workerNodes the node hosting each worker, indexed by worker id
+     */
+    public NIONetwork(InetSocketAddress[] nodes, int[] workerNodes) {
+        for (int worker = 0; worker < workerNodes.length; worker++) {
+            if (workerNodes[worker] < 0 || workerNodes[worker] >= nodes.length)
+                throw new IllegalArgumentException("worker " + worker + " is placed on node " + workerNodes[worker] + " but there are " + nodes.length + " nodes.");
+        }
+        this.nodes = nodes.clone();
+        this.workerNodes = workerNodes.clone();
+    }
+
+    /**
+     * A network of nodeCount JVMs on this host listening on consecutive ports.
+     */
+    public static NIONetwork loopback(int firstPort, int nodeCount, int workersPerNode) {
+        InetSocketAddress[] nodes = new InetSocketAddress[nodeCount];
+        for (int i = 0; i < nodeCount; i++) {
+            nodes[i] = new InetSocketAddress(InetAddress.getLoopbackAddress(), firstPort + i);
+        }
+        return new NIONetwork(nodes, workersPerNode);
+    }
+
+    private static int[] spread(int nodeCount, int workersPerNode) {
+        if (workersPerNode < 1) throw new IllegalArgumentException("Every node must host at least one worker.");
+        int[] workerNodes = new int[nodeCount * workersPerNode];
+        for (int worker = 0; worker < workerNodes.length; worker++) {
+            workerNodes[worker] = worker / workersPerNode;
+        }
+        return workerNodes;
+    }
+
+    public int nodeCount() {
+        return nodes.length;
+    }
+
+    public int workerCount() {
+        return workerNodes.length;
+    }
+
+    public InetSocketAddress address(int node) {
+        return nodes[node];
+    }
+
+    public int nodeOf(int worker) {
+        if (worker < 0 || worker >= workerNodes.length) throw new IllegalArgumentException("There is no worker " + worker + " in this network.");
+        return workerNodes[worker];
+    }
+
+    public SMPWorkerId[] localWorkers(int node) {
+        List<SMPWorkerId> workers = new ArrayList<SMPWorkerId>();
+        for (int worker = 0; worker < workerNodes.length; worker++) {
+            if (workerNodes[worker] == node) workers.add(new SMPWorkerId(worker));
+        }
+        return workers.toArray(new SMPWorkerId[workers.size()]);
+    }
+}
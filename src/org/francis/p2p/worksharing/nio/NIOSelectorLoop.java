@@ -0,0 +1,107 @@
+package org.francis.p2p.worksharing.nio;
+
+import java.io.IOException;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.util.Iterator;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+/**
+ * The single I/O thread of a node. It reads from every connection and writes the frames queued by the workers, so a
+ * worker never blocks on a socket.
+ */
+class NIOSelectorLoop implements Runnable {
+
+    private final NIOMessageManager messageManager;
+    private final NIOConnection[] connections;
+    private final Selector selector;
+    private final ConcurrentLinkedQueue<NIOConnection> writeRequests;
+    private volatile boolean running;
+
+    NIOSelectorLoop(NIOMessageManager messageManager, NIOConnection[] connections) throws IOException {
+        this.messageManager = messageManager;
+        this.connections = connections;
+        this.selector = Selector.open();
+        this.writeRequests = new ConcurrentLinkedQueue<NIOConnection>();
+        this.running = true;
+        for (NIOConnection connection : connections) {
+            if (connection == null) continue;
+            connection.channel.configureBlocking(false);
+            connection.key = connection.channel.register(selector, SelectionKey.OP_READ, connection);
+        }
+    }
+
+    void scheduleWrite(NIOConnection connection) {
+        writeRequests.add(connection);
+        selector.wakeup();
+    }
+
+    void stop() {
+        running = false;
+        selector.wakeup();
+    }
+
+    @Override
+    public void run() {
+        try {
+            while (running) {
+                selector.select();
+                NIOConnection connection;
+                while ((connection = writeRequests.poll()) != null) {
+                    write(connection);
+                }
+                Iterator<SelectionKey> keys = selector.selectedKeys().iterator();
+                while (keys.hasNext()) {
+                    SelectionKey key = keys.next();
+                    keys.remove();
+                    connection = (NIOConnection) key.attachment();
+                    if (key.isValid() && key.isReadable()) read(connection);
+                    if (key.isValid() && key.isWritable()) write(connection);
+                }
+            }
+        } catch (IOException e) {
+            e.printStackTrace();
+        } finally {
+            close();
+        }
+    }
+
+    private void read(NIOConnection connection) {
+        try {
+            if (!connection.read(messageManager)) {
+                connection.key.cancel();
+                messageManager.connectionClosed(connection, null);
+            }
+        } catch (IOException e) {
+            connection.key.cancel();
+            messageManager.connectionClosed(connection, e);
+        }
+    }
+
+    private void write(NIOConnection connection) {
+        if (!connection.key.isValid()) return;
+        try {
+            boolean written = connection.write();
+            connection.key.interestOps(written ? SelectionKey.OP_READ : SelectionKey.OP_READ | SelectionKey.OP_WRITE);
+        } catch (IOException e) {
+            connection.key.cancel();
+            messageManager.connectionClosed(connection, e);
+        }
+    }
+
+    private void close() {
+        for (NIOConnection connection : connections) {
+            if (connection == null) continue;
+            try {
+                connection.channel.close();
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+        }
+        try {
+            selector.close();
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+    }
+}
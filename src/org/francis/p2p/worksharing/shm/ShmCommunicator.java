@@ -0,0 +1,37 @@
+package org.francis.p2p.worksharing.shm;
+
+import org.francis.p2p.worksharing.network.NetworkManager.RequestStrategy;
+import org.francis.p2p.worksharing.smp.SMPCommunicator;
+import org.francis.p2p.worksharing.smp.SMPWorkerId;
+import org.francis.p2p.worksharing.smp.Topology;
+
+/**
+ * A Communicator for a worker in a network spread over several JVMs on one host. Workers are addressed by their id
+ * across the whole network, so the chain, topologies and request strategies of the SMPCommunicator work unchanged, and
+ * it is the ShmMessageManager which decides whether a message stays in this JVM or goes through a shared memory ring.
+ * Delivery isn't causal, so the workers must use TOKEN termination, which their NetworkManagers do by default.
+ */
+public class ShmCommunicator extends SMPCommunicator {
+
+    public ShmCommunicator(ShmMessageManager messageManager, SMPWorkerId topWorker, SMPWorkerId bottomWorker, SMPWorkerId self) {
+        super(messageManager,topWorker,bottomWorker,self);
+    }
+
+    public ShmCommunicator(ShmMessageManager messageManager, SMPWorkerId topWorker, SMPWorkerId bottomWorker, SMPWorkerId self, RequestStrategy requestStrategy, int maxAttempts) {
+        super(messageManager,topWorker,bottomWorker,self,requestStrategy,maxAttempts);
+    }
+
+    public ShmCommunicator(ShmMessageManager messageManager, Topology topology, SMPWorkerId self) {
+        super(messageManager,topology,self);
+    }
+
+    public ShmCommunicator(ShmMessageManager messageManager, Topology topology, SMPWorkerId self, RequestStrategy requestStrategy, int maxAttempts) {
+        super(messageManager,topology,self,requestStrategy,maxAttempts);
+    }
+
+    // The poller sweeps the rings in turn, so a message may be overtaken by one it caused, which came by another ring
+    @Override
+    public boolean isDeliveryCausal() {
+        return false;
+    }
+}
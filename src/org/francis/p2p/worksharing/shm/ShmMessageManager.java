@@ -0,0 +1,186 @@
+package org.francis.p2p.worksharing.shm;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+import org.francis.p2p.worksharing.network.codec.JavaWorkSerializer;
+import org.francis.p2p.worksharing.network.codec.MessageCodec;
+import org.francis.p2p.worksharing.network.codec.WorkSerializer;
+import org.francis.p2p.worksharing.network.message.CheckpointNetwork;
+import org.francis.p2p.worksharing.network.message.Incumbent;
+import org.francis.p2p.worksharing.network.message.NetworkMessage;
+import org.francis.p2p.worksharing.network.message.ResultMessage;
+import org.francis.p2p.worksharing.smp.SMPMessageManager;
+import org.francis.p2p.worksharing.smp.SMPWorkerId;
+import org.francis.p2p.worksharing.smp.SMPWorkerIdCodec;
+
+/**
+ * An SMPMessageManager for one node of a network spread over several JVMs on the same host. Messages to the workers on
+ * this node go straight into their mailboxes, messages to workers on other nodes are encoded with a MessageCodec and
+ * written to the memory mapped ring read by that node, without a system call. Each node has a poller thread which reads
+ * its incoming rings. Results, shut downs, checkpoints and improved incumbents are sent to every node, so every node
+ * can wait for the result with receiveResult. Solutions stay on the node which found them.
+ *
+ * Each ring has a single producing node and is read in order, so messages from one worker to another arrive in the
+ * order they were sent. That isn't enough for COUNTING termination, which needs causal delivery across the whole
+ * network. The poller sweeps the incoming rings in the order of their nodes, so a message from D to H can still be
+ * overtaken by one D sent after it to a worker on another node, which that worker then passes on to H. The workers of a
+ * network using this transport must use TOKEN termination, which ShmCommunicators default to.
+ */
+public class ShmMessageManager extends SMPMessageManager {
+
+    static final int RESULT = -1;
+    static final int SHUT_DOWN = -2;
+    static final int CHECKPOINT = -3;
+    static final int INCUMBENT = -4;
+
+    private static final ByteBuffer EMPTY = ByteBuffer.allocate(0);
+
+    private final ShmNetwork network;
+    private final int selfNode;
+    private final ShmRing[] outgoing; // Indexed by the node we write to, null for ourselves
+    private final ShmRing[] incoming; // Indexed by the node that writes to us, null for ourselves
+    private final ShmPoller poller;
+    private final Thread pollerThread;
+    private final ThreadLocal<MessageCodec> sendCodecs; // Every worker encodes the messages it sends
+    private final MessageCodec receiveCodec; // Only used by the poller thread
+
+    private ShmMessageManager(ShmNetwork network, int selfNode, ShmRing[] outgoing, ShmRing[] incoming, final WorkSerializer workSerializer) {
+        super(network.workerCount(), network.localWorkers(selfNode));
+        this.network = network;
+        this.selfNode = selfNode;
+        this.outgoing = outgoing;
+        this.incoming = incoming;
+        this.sendCodecs = new ThreadLocal<MessageCodec>() {
+            @Override
+            protected MessageCodec initialValue() {
+                return new MessageCodec(new SMPWorkerIdCodec(), workSerializer);
+            }
+        };
+        this.receiveCodec = new MessageCodec(new SMPWorkerIdCodec(), workSerializer);
+        this.poller = new ShmPoller(this, incoming);
+        this.pollerThread = new Thread(poller, "shm-poller-" + selfNode);
+        this.pollerThread.setDaemon(true);
+        this.pollerThread.start();
+    }
+
+    /**
+     * Creates the rings this node reads and opens the rings it writes, returning once every other node has created its
+     * rings. Every node must call this, in any order, within timeout milliseconds of each other. Shared work is sent
+     * with Java serialisation.
+     */
+    public static ShmMessageManager connect(ShmNetwork network, int selfNode, long timeout) throws IOException {
+        return connect(network, selfNode, timeout, new JavaWorkSerializer());
+    }
+
+    /**
+     * @param workSerializer writes and reads the work given away by the WorkSharers, every node must use the same one
+     */
+    public static ShmMessageManager connect(ShmNetwork network, int selfNode, long timeout, WorkSerializer workSerializer) throws IOException {
+        long deadline = System.currentTimeMillis() + timeout;
+        ShmRing[] incoming = new ShmRing[network.nodeCount()];
+        ShmRing[] outgoing = new ShmRing[network.nodeCount()];
+        for (int node = 0; node < network.nodeCount(); node++) {
+            if (node != selfNode) incoming[node] = ShmRing.create(network.ringFile(node, selfNode), network.ringCapacity());
+        }
+        for (int node = 0; node < network.nodeCount(); node++) {
+            if (node != selfNode) outgoing[node] = ShmRing.open(network.ringFile(selfNode, node), deadline);
+        }
+        return new ShmMessageManager(network, selfNode, outgoing, incoming, workSerializer);
+    }
+
+    public int selfNode() {
+        return selfNode;
+    }
+
+    public SMPWorkerId[] localWorkers() {
+        return network.localWorkers(selfNode);
+    }
+
+    @Override
+    public void send(SMPWorkerId worker, NetworkMessage msg) {
+        int node = network.nodeOf(worker.getId());
+        if (node == selfNode)
+            super.send(worker, msg);
+        else
+            outgoing[node].write(worker.getId(), sendCodecs.get().encode(msg));
+    }
+
+    @Override
+    public void sendResult(ResultMessage result) {
+        super.sendResult(result);
+        broadcastFrame(RESULT, sendCodecs.get().encode(result));
+    }
+
+    @Override
+    public void shutDownNetwork() {
+        super.shutDownNetwork();
+        broadcastFrame(SHUT_DOWN, EMPTY);
+    }
+
+    @Override
+    public void checkpointNetwork(String directory) {
+        super.checkpointNetwork(directory);
+        CheckpointNetwork msg = new CheckpointNetwork(directory);
+        broadcastFrame(CHECKPOINT, sendCodecs.get().encode(msg));
+    }
+
+    /**
+     * Only an incumbent which improves on the one this node knows of is sent to the other nodes, so a worker's
+     * improvements and those it hears of from other nodes are never sent twice.
+     */
+    @Override
+    public boolean publishIncumbent(Incumbent incumbent) {
+        if (!super.publishIncumbent(incumbent)) return false;
+        broadcastFrame(INCUMBENT, sendCodecs.get().encode(incumbent));
+        return true;
+    }
+
+    private void broadcastFrame(int destination, ByteBuffer payload) {
+        for (ShmRing ring : outgoing) {
+            if (ring != null) ring.write(destination, payload.duplicate());
+        }
+    }
+
+    // Called by the poller thread
+    void receiveFrame(int destination, ByteBuffer payload) {
+        if (destination == SHUT_DOWN) {
+            super.shutDownNetwork();
+        } else if (destination == CHECKPOINT) {
+            super.checkpointNetwork(((CheckpointNetwork) receiveCodec.decode(payload)).directory);
+        } else if (destination == INCUMBENT) {
+            super.publishIncumbent((Incumbent) receiveCodec.decode(payload));
+        } else if (destination == RESULT) {
+            super.sendResult((ResultMessage) receiveCodec.decode(payload));
+        } else {
+            super.send(new SMPWorkerId(destination), receiveCodec.decode(payload));
+        }
+    }
+
+    /**
+     * Waits up to timeout milliseconds for the other nodes to read what we have written to them, then stops the poller
+     * and deletes the rings this node reads. Should be called once the result has been received.
+     */
+    public void close(long timeout) {
+        long deadline = System.currentTimeMillis() + timeout;
+        try {
+            while (hasUnreadWrites() && System.currentTimeMillis() < deadline) {
+                Thread.sleep(1);
+            }
+            poller.stop();
+            pollerThread.join(Math.max(1, deadline - System.currentTimeMillis()));
+        } catch (InterruptedException e) {
+            throw new RuntimeException(e); // Right now there is no reason this should be interrupted
+        }
+        for (ShmRing ring : incoming) {
+            if (ring != null) ring.delete();
+        }
+    }
+
+    private boolean hasUnreadWrites() {
+        for (ShmRing ring : outgoing) {
+            if (ring != null && !ring.isEmpty()) return true;
+        }
+        return false;
+    }
+}
@@ -0,0 +1,89 @@
+package org.francis.p2p.worksharing.shm;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.francis.p2p.worksharing.smp.SMPWorkerId;
+
+/**
+ * Describes a network of workers spread over several JVMs on one host, called nodes, which pass messages through
+ * memory mapped files in a shared directory. Each node hosts some of the workers, the worker ids run from 0 up to the
+ * number of workers across the whole network. Every node of the network must be given the same ShmNetwork.
+ *
+ * The directory must not hold the rings of an earlier run, so each run should be given a fresh one.
+ */
+public class ShmNetwork {
+
+    public static final int DEFAULT_RING_CAPACITY = 4 * 1024 * 1024;
+
+    private final File directory;
+    private final int nodeCount;
+    private final int[] workerNodes; // The node hosting each worker, indexed by worker id
+    private final int ringCapacity;
+
+    /**
+     * Places workersPerNode workers on each node, worker w is hosted by node w / workersPerNode.
+     */
+    public ShmNetwork(File directory, int nodeCount, int workersPerNode) {
+        this(directory, nodeCount, spread(nodeCount, workersPerNode), DEFAULT_RING_CAPACITY);
+    }
+
+    /**
+     * @param workerNodes the node hosting each worker, indexed by worker id
+     * @param ringCapacity the size in bytes of the ring each node writes to each other node, rounded up to a power of
+     * two. No single message, including the work it carries, may be larger than this.
+     */
+    public ShmNetwork(File directory, int nodeCount, int[] workerNodes, int ringCapacity) {
+        for (int worker = 0; worker < workerNodes.length; worker++) {
+            if (workerNodes[worker] < 0 || workerNodes[worker] >= nodeCount)
+                throw new IllegalArgumentException("worker " + worker + " is placed on node " + workerNodes[worker] + " but there are " + nodeCount + " nodes.");
+        }
+        if (ringCapacity < 64 || ringCapacity > 1 << 30) throw new IllegalArgumentException("Ring capacity must be between 64 bytes and 1GB, got " + ringCapacity);
+        this.directory = directory;
+        this.nodeCount = nodeCount;
+        this.workerNodes = workerNodes.clone();
+        this.ringCapacity = Integer.highestOneBit(ringCapacity - 1) << 1;
+    }
+
+    private static int[] spread(int nodeCount, int workersPerNode) {
+        if (workersPerNode < 1) throw new IllegalArgumentException("Every node must host at least one worker.");
+        int[] workerNodes = new int[nodeCount * workersPerNode];
+        for (int worker = 0; worker < workerNodes.length; worker++) {
+            workerNodes[worker] = worker / workersPerNode;
+        }
+        return workerNodes;
+    }
+
+    public int nodeCount() {
+        return nodeCount;
+    }
+
+    public int workerCount() {
+        return workerNodes.length;
+    }
+
+    public int ringCapacity() {
+        return ringCapacity;
+    }
+
+    /**
+     * The file holding the ring written by node from and read by node to.
+     */
+    public File ringFile(int from, int to) {
+        return new File(directory, "ring-" + from + "-" + to);
+    }
+
+    public int nodeOf(int worker) {
+        if (worker < 0 || worker >= workerNodes.length) throw new IllegalArgumentException("There is no worker " + worker + " in this network.");
+        return workerNodes[worker];
+    }
+
+    public SMPWorkerId[] localWorkers(int node) {
+        List<SMPWorkerId> workers = new ArrayList<SMPWorkerId>();
+        for (int worker = 0; worker < workerNodes.length; worker++) {
+            if (workerNodes[worker] == node) workers.add(new SMPWorkerId(worker));
+        }
+        return workers.toArray(new SMPWorkerId[workers.size()]);
+    }
+}
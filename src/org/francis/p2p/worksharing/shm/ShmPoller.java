@@ -0,0 +1,49 @@
+package org.francis.p2p.worksharing.shm;
+
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * The thread of a node which reads every ring written to it, delivering the messages into the local workers' mailboxes.
+ * It spins while messages are arriving and backs off to short sleeps once the rings have been quiet for a while, so an
+ * idle node costs little but a busy one pays no system calls.
+ */
+class ShmPoller implements Runnable {
+
+    private static final int SPINS = 1000; // Empty polls before we start to sleep
+    private static final long MAX_SLEEP = 100000; // Nanoseconds
+
+    private final ShmMessageManager messageManager;
+    private final ShmRing[] rings;
+    private volatile boolean running;
+
+    ShmPoller(ShmMessageManager messageManager, ShmRing[] rings) {
+        this.messageManager = messageManager;
+        this.rings = rings;
+        this.running = true;
+    }
+
+    void stop() {
+        running = false;
+    }
+
+    @Override
+    public void run() {
+        int idle = 0;
+        long sleep = 1000;
+        while (running) {
+            boolean read = false;
+            for (ShmRing ring : rings) {
+                if (ring != null) read |= ring.read(messageManager);
+            }
+            if (read) {
+                idle = 0;
+                sleep = 1000;
+            } else if (idle < SPINS) {
+                idle++;
+            } else {
+                LockSupport.parkNanos(sleep);
+                sleep = Math.min(MAX_SLEEP, sleep * 2);
+            }
+        }
+    }
+}
@@ -0,0 +1,154 @@
+package org.francis.p2p.worksharing.shm;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * A single producer single consumer ring of frames in a memory mapped file, written by one node and read by another.
+ * The head, the position the consumer has read up to, and the tail, the position the producer has written up to, live
+ * on their own cache lines at the start of the file and are only ever advanced with release writes after the bytes
+ * they cover, and read with acquire reads, so a frame is always complete before the other process sees it.
+ *
+ * A frame is an int length followed by that many bytes, the first four of which are the destination, padded to eight
+ * bytes. A frame never wraps around the end of the ring, when it won't fit a padding marker sends the consumer back to
+ * the start. Several workers of a node may write to the same ring, so writes are synchronised, within the node there is
+ * still only one producer.
+ */
+class ShmRing {
+
+    private static final VarHandle LONGS = MethodHandles.byteBufferViewVarHandle(long[].class, ByteOrder.nativeOrder());
+    private static final int HEAD_OFFSET = 0;
+    private static final int TAIL_OFFSET = 64;
+    private static final int DATA_OFFSET = 128;
+    private static final int PADDING = -1;
+    private static final long FULL_WAIT = 10000; // Nanoseconds a producer waits for the consumer to make room
+
+    private final File file;
+    private final MappedByteBuffer buffer;
+    private final ByteBuffer view; // Positioned to copy payloads in or slice them out
+    private final int capacity;
+    private final int mask;
+    private long position; // The tail for the producer, the head for the consumer
+
+    private ShmRing(File file, MappedByteBuffer buffer, int capacity) {
+        this.file = file;
+        this.buffer = buffer;
+        this.view = buffer.duplicate();
+        this.capacity = capacity;
+        this.mask = capacity - 1;
+        this.position = 0;
+    }
+
+    /**
+     * Creates a new empty ring for the consumer. It is created under a temporary name and renamed into place so a
+     * producer never sees it half made.
+     */
+    static ShmRing create(File file, int capacity) throws IOException {
+        File temporary = new File(file.getPath() + ".tmp");
+        temporary.delete();
+        MappedByteBuffer buffer = map(temporary, DATA_OFFSET + capacity);
+        if (!temporary.renameTo(file)) throw new IOException("Unable to create the ring " + file);
+        return new ShmRing(file, buffer, capacity);
+    }
+
+    /**
+     * Opens the producer's end of a ring, waiting until the consumer has created it.
+     */
+    static ShmRing open(File file, long deadline) throws IOException {
+        while (!file.exists()) {
+            if (System.currentTimeMillis() >= deadline) throw new IOException("Timed out waiting for the ring " + file);
+            try {
+                Thread.sleep(10); // The consuming node may not have started yet
+            } catch (InterruptedException e) {
+                throw new RuntimeException(e); // Right now there is no reason this should be interrupted
+            }
+        }
+        int capacity = (int) (file.length() - DATA_OFFSET);
+        return new ShmRing(file, map(file, DATA_OFFSET + capacity), capacity);
+    }
+
+    private static MappedByteBuffer map(File file, int size) throws IOException {
+        RandomAccessFile raf = new RandomAccessFile(file, "rw");
+        try {
+            raf.setLength(size);
+            MappedByteBuffer buffer = raf.getChannel().map(FileChannel.MapMode.READ_WRITE, 0, size);
+            buffer.order(ByteOrder.nativeOrder());
+            return buffer;
+        } finally {
+            raf.close(); // The mapping stays valid after the file is closed
+        }
+    }
+
+    /**
+     * Copies payload into the ring, waiting while the ring is too full.
+     */
+    synchronized void write(int destination, ByteBuffer payload) {
+        int size = align(8 + payload.remaining());
+        if (size > capacity) throw new IllegalArgumentException("A message of " + payload.remaining() + " bytes is too large for a ring of " + capacity + " bytes.");
+        int index = (int) (position & mask);
+        if (capacity - index < size) {
+            // The padding is published on its own, as the frame may need the space the consumer frees by skipping it
+            awaitSpace(capacity - index);
+            buffer.putInt(DATA_OFFSET + index, PADDING);
+            position += capacity - index;
+            LONGS.setRelease(buffer, TAIL_OFFSET, position);
+            index = 0;
+        }
+        awaitSpace(size);
+        buffer.putInt(DATA_OFFSET + index, 4 + payload.remaining());
+        buffer.putInt(DATA_OFFSET + index + 4, destination);
+        view.clear();
+        view.position(DATA_OFFSET + index + 8);
+        view.put(payload);
+        position += size;
+        LONGS.setRelease(buffer, TAIL_OFFSET, position);
+    }
+
+    private void awaitSpace(int size) {
+        while (capacity - (position - (long) LONGS.getAcquire(buffer, HEAD_OFFSET)) < size) {
+            LockSupport.parkNanos(FULL_WAIT);
+        }
+    }
+
+    /**
+     * Hands the next frame, if there is one, to the message manager. Only called by the consumer's poller thread.
+     * Returns false if the ring was empty.
+     */
+    boolean read(ShmMessageManager messageManager) {
+        if (position == (long) LONGS.getAcquire(buffer, TAIL_OFFSET)) return false;
+        int index = (int) (position & mask);
+        int length = buffer.getInt(DATA_OFFSET + index);
+        if (length == PADDING) {
+            position += capacity - index;
+        } else {
+            int destination = buffer.getInt(DATA_OFFSET + index + 4);
+            view.clear();
+            view.position(DATA_OFFSET + index + 8);
+            view.limit(DATA_OFFSET + index + 4 + length);
+            messageManager.receiveFrame(destination, view.slice()); // Decoded before we release the space
+            position += align(4 + length);
+        }
+        LONGS.setRelease(buffer, HEAD_OFFSET, position);
+        return true;
+    }
+
+    boolean isEmpty() {
+        return (long) LONGS.getAcquire(buffer, HEAD_OFFSET) == (long) LONGS.getAcquire(buffer, TAIL_OFFSET);
+    }
+
+    void delete() {
+        file.delete();
+    }
+
+    private static int align(int size) {
+        return (size + 7) & ~7;
+    }
+}
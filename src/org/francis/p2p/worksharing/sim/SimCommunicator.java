@@ -0,0 +1,20 @@
+package org.francis.p2p.worksharing.sim;
+
+import java.util.Random;
+
+import org.francis.p2p.worksharing.network.NetworkManager.RequestStrategy;
+import org.francis.p2p.worksharing.smp.SMPCommunicator;
+import org.francis.p2p.worksharing.smp.SMPWorkerId;
+import org.francis.p2p.worksharing.smp.Topology;
+
+/**
+ * A Communicator for a worker in a simulated network. The topologies and request strategies of the SMPCommunicator
+ * work unchanged, it is the SimMessageManager which delivers each message once its latency has passed on the virtual
+ * clock. The victims of RANDOM_VICTIM requests are picked with a seeded Random, so a simulation can be repeated.
+ */
+public class SimCommunicator extends SMPCommunicator {
+
+    public SimCommunicator(SimMessageManager messageManager, Topology topology, SMPWorkerId self, RequestStrategy requestStrategy, int maxAttempts, long seed) {
+        super(messageManager,topology,self,requestStrategy,maxAttempts,new Random(seed));
+    }
+}
@@ -0,0 +1,342 @@
+package org.francis.p2p.worksharing.sim;
+
+import java.util.ArrayDeque;
+import java.util.Collections;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.TreeMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Semaphore;
+
+import org.francis.p2p.worksharing.network.Clock;
+import org.francis.p2p.worksharing.network.message.NetworkMessage;
+import org.francis.p2p.worksharing.network.message.ResultMessage;
+import org.francis.p2p.worksharing.network.message.ShutDownNetwork;
+import org.francis.p2p.worksharing.network.message.SolutionBatch;
+import org.francis.p2p.worksharing.smp.SMPMessageManager;
+import org.francis.p2p.worksharing.smp.SMPWorkerId;
+
+/**
+ * Delivers the messages of a simulated network under a virtual clock, which is also the Clock of every worker's
+ * NetworkManager. Each worker has a thread of its own, as a NetworkManager waits for messages part way through
+ * manageNetwork, but only one of them runs at a time. A worker runs until it has to wait, for a message or for its
+ * latest piece of work to use up its virtual time, and then hands over to the worker the next event is for. Events are
+ * ordered by their virtual time and then by the order they were made in, so a simulation with the same settings always
+ * runs the same way.
+ *
+ * Every message takes the same latency to arrive, so the messages between two workers are never reordered. Handling a
+ * message takes no virtual time. The incumbent is shared at once, as it is by the workers of one JVM, and the
+ * solutions of the ALL solution mode are only counted.
+ *
+ * As only one thread runs at a time, and each hands over to the next through a semaphore, none of the state here needs
+ * to be volatile but the failure, which every worker reads once the simulation fails.
+ */
+public class SimMessageManager extends SMPMessageManager implements Clock {
+
+    private final long latency; // Nanoseconds for a message to reach its destination
+    private final SimWorker[] workers; // Indexed by worker id
+    private final PriorityQueue<Event> events;
+    private final Map<String, Long> messageCounts; // By the simple name of the message's class
+    private final CountDownLatch stopped;
+    private long now; // Nanoseconds since the simulation started
+    private long eventCount; // Orders the events due at the same time
+    private int running; // Workers which haven't stopped
+    private long busyTime; // Spent on work by every worker
+    private long busyTimeToResult; // Of busyTime, what was spent before the result was sent
+    private long solutionCount;
+    private ResultMessage result; // The first one sent
+    private long resultTime;
+    private long stopTime; // When the last worker stopped
+    private volatile Throwable failure; // Read by workers which are released to unwind once the simulation has failed
+
+    public SimMessageManager(int workerCount, long latency) {
+        super(workerCount, new SMPWorkerId[0]); // Our mailboxes are our own
+        if (latency < 0) throw new IllegalArgumentException("A message can't arrive before it is sent, latency was " + latency);
+        this.latency = latency;
+        this.workers = new SimWorker[workerCount];
+        for (int i = 0; i < workerCount; i++) {
+            workers[i] = new SimWorker();
+        }
+        this.events = new PriorityQueue<Event>();
+        this.messageCounts = new TreeMap<String, Long>();
+        this.stopped = new CountDownLatch(workerCount);
+        this.running = workerCount;
+    }
+
+    @Override
+    public long currentTimeMillis() {
+        return now / 1000000;
+    }
+
+    @Override
+    public long nanoTime() {
+        return now;
+    }
+
+    /**
+     * Gives every worker its first turn, in the order of their ids, and waits until they have all stopped. Each worker's
+     * thread must call awaitFirstTurn before anything else, and stopped once it is done.
+     *
+     * @throws IllegalStateException if the network stalled, or a worker threw
+     */
+    public void run() throws InterruptedException {
+        for (int i = 0; i < workers.length; i++) {
+            schedule(new Event(0, i, null, 0));
+        }
+        handOver(null);
+        stopped.await();
+        if (failure != null) throw new IllegalStateException("The simulation failed.", failure);
+    }
+
+    public void awaitFirstTurn(SMPWorkerId worker) {
+        park(retrieveWorker(worker));
+    }
+
+    /**
+     * Uses up time nanoseconds of the worker's virtual time, which counts towards its busy time.
+     */
+    public void work(SMPWorkerId worker, long time) {
+        SimWorker simWorker = retrieveWorker(worker);
+        busyTime += time;
+        simWorker.workEnd = now + time;
+        simWorker.waitingForMail = false;
+        schedule(new Event(now + time, worker.getId(), null, simWorker.generation));
+        handOver(simWorker);
+    }
+
+    /**
+     * Takes the worker out of the simulation, and hands over to the next worker with something to do.
+     */
+    public void stopped(SMPWorkerId worker) {
+        SimWorker simWorker = retrieveWorker(worker);
+        simWorker.stopped = true;
+        if (failure == null) {
+            running--;
+            stopTime = now;
+            handOver(null);
+        }
+        stopped.countDown();
+    }
+
+    /**
+     * Stops the simulation because a worker threw, every worker waiting for its turn throws in turn so its thread
+     * unwinds. Only the first failure is kept.
+     */
+    public void fail(Throwable cause) {
+        if (failure != null) return;
+        failure = cause;
+        for (SimWorker simWorker : workers) {
+            if (!simWorker.stopped) simWorker.turn.release();
+        }
+    }
+
+    // Runs events until one of them is for a worker which is waiting for it, and hands that worker the turn. Returns
+    // once from has the turn again, or at once if from is null, as it is for the driver or a worker which has stopped
+    private void handOver(SimWorker from) {
+        while (true) {
+            Event event = events.poll();
+            if (event == null) {
+                if (running > 0) fail(new IllegalStateException("The simulated network stalled at " + now + "ns, " + running + " workers are waiting for messages which will never arrive."));
+                if (from != null) checkFailed();
+                return;
+            }
+            now = event.time;
+            SimWorker to = workers[event.worker];
+            if (event.message != null) to.mailbox.add(event.message);
+            if (to.stopped) continue;
+            if (event.message != null ? !to.waitingForMail : event.generation != to.generation) continue; // Including a timeout for a wait a message has already ended
+            to.generation++;
+            to.waitingForMail = false;
+            if (to == from) return;
+            to.turn.release();
+            if (from != null) park(from);
+            return;
+        }
+    }
+
+    private void park(SimWorker simWorker) {
+        simWorker.turn.acquireUninterruptibly();
+        checkFailed();
+    }
+
+    private void checkFailed() {
+        if (failure != null) throw new SimulationFailed(failure);
+    }
+
+    // Waits for a message, or until timeout nanoseconds have passed if timeout isn't negative
+    private void awaitMessage(SimWorker simWorker, int id, long timeout) {
+        simWorker.waitingForMail = true;
+        if (timeout >= 0) schedule(new Event(now + timeout, id, null, simWorker.generation));
+        handOver(simWorker);
+    }
+
+    private void schedule(Event event) {
+        event.sequence = eventCount++;
+        events.add(event);
+    }
+
+    private SimWorker retrieveWorker(SMPWorkerId worker) {
+        int id = worker.getId();
+        if (id < 0 || id >= workers.length) throw new IllegalArgumentException("worker must be one of the " + workers.length + " workers of this simulation, got " + id);
+        return workers[id];
+    }
+
+    private void count(NetworkMessage msg) {
+        String type = msg.getClass().getSimpleName();
+        Long count = messageCounts.get(type);
+        messageCounts.put(type, Long.valueOf(count == null ? 1 : count.longValue() + 1));
+    }
+
+    @Override
+    public void send(SMPWorkerId worker, NetworkMessage msg) {
+        retrieveWorker(worker);
+        count(msg);
+        schedule(new Event(now + latency, worker.getId(), msg, 0));
+    }
+
+    @Override
+    public void sendResult(ResultMessage result) {
+        if (this.result != null) return;
+        this.result = result;
+        this.resultTime = now;
+        busyTimeToResult = busyTime;
+        for (SimWorker simWorker : workers) {
+            if (simWorker.workEnd > now) busyTimeToResult -= simWorker.workEnd - now; // Part way through a piece of work
+        }
+    }
+
+    @Override
+    public void sendSolutions(SolutionBatch batch) {
+        solutionCount += batch.solutions.size();
+    }
+
+    @Override
+    public void shutDownNetwork() {
+        ShutDownNetwork msg = new ShutDownNetwork();
+        for (int i = 0; i < workers.length; i++) {
+            send(new SMPWorkerId(i), msg);
+        }
+    }
+
+    @Override
+    public NetworkMessage nonblockingReceive(SMPWorkerId worker) {
+        return retrieveWorker(worker).mailbox.poll();
+    }
+
+    @Override
+    public int nonblockingReceive(SMPWorkerId worker, NetworkMessage[] messages) {
+        ArrayDeque<NetworkMessage> mailbox = retrieveWorker(worker).mailbox;
+        int count = 0;
+        while (count < messages.length && !mailbox.isEmpty()) {
+            messages[count++] = mailbox.poll();
+        }
+        return count;
+    }
+
+    @Override
+    public NetworkMessage blockingReceive(SMPWorkerId worker) {
+        SimWorker simWorker = retrieveWorker(worker);
+        while (simWorker.mailbox.isEmpty()) {
+            awaitMessage(simWorker, worker.getId(), -1);
+        }
+        return simWorker.mailbox.poll();
+    }
+
+    @Override
+    public NetworkMessage timedReceive(SMPWorkerId worker, long timeout) {
+        SimWorker simWorker = retrieveWorker(worker);
+        if (simWorker.mailbox.isEmpty()) awaitMessage(simWorker, worker.getId(), timeout * 1000000);
+        return simWorker.mailbox.poll();
+    }
+
+    /**
+     * The first result sent, or null if there wasn't one. Only valid once run has returned, as are the other results of
+     * the simulation.
+     */
+    public ResultMessage result() {
+        return result;
+    }
+
+    /**
+     * The virtual time, in nanoseconds, at which the first result was sent.
+     */
+    public long resultTime() {
+        return resultTime;
+    }
+
+    /**
+     * The virtual time, in nanoseconds, at which the last worker stopped.
+     */
+    public long stopTime() {
+        return stopTime;
+    }
+
+    /**
+     * The virtual time, in nanoseconds, every worker spent on work.
+     */
+    public long busyTime() {
+        return busyTime;
+    }
+
+    /**
+     * The virtual time, in nanoseconds, every worker spent on work before the first result was sent.
+     */
+    public long busyTimeToResult() {
+        return busyTimeToResult;
+    }
+
+    public long solutionCount() {
+        return solutionCount;
+    }
+
+    /**
+     * The number of messages sent of each type, counting each hop of a message passed on by the workers it visits.
+     */
+    public Map<String, Long> messageCounts() {
+        return Collections.unmodifiableMap(messageCounts);
+    }
+
+    private static class SimWorker {
+
+        final ArrayDeque<NetworkMessage> mailbox = new ArrayDeque<NetworkMessage>();
+        final Semaphore turn = new Semaphore(0); // Released when it is this worker's turn to run
+        boolean waitingForMail; // As opposed to waiting for its work to use up its time
+        int generation; // Counts the worker's waits, so a timeout for a wait which has already ended is ignored
+        long workEnd; // When the worker's latest piece of work ends
+        boolean stopped;
+    }
+
+    private static class Event implements Comparable<Event> {
+
+        final long time;
+        final int worker;
+        final NetworkMessage message; // Null for a timeout, or the end of a piece of work
+        final int generation; // Of the wait this event ends, unless it delivers a message
+        long sequence;
+
+        Event(long time, int worker, NetworkMessage message, int generation) {
+            this.time = time;
+            this.worker = worker;
+            this.message = message;
+            this.generation = generation;
+        }
+
+        @Override
+        public int compareTo(Event other) {
+            if (time != other.time) return time < other.time ? -1 : 1;
+            return sequence < other.sequence ? -1 : sequence == other.sequence ? 0 : 1;
+        }
+    }
+
+    /**
+     * Thrown to unwind a worker's thread once the simulation has failed.
+     */
+    static class SimulationFailed extends RuntimeException {
+
+        private static final long serialVersionUID = -2217845304478315029L;
+
+        SimulationFailed(Throwable cause) {
+            super(cause);
+        }
+    }
+}
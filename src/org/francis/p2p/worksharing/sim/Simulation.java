@@ -0,0 +1,232 @@
+package org.francis.p2p.worksharing.sim;
+
+import java.util.Random;
+import java.util.concurrent.ThreadFactory;
+
+import org.francis.p2p.worksharing.network.ExpandingWorkSharer;
+import org.francis.p2p.worksharing.network.NetworkManager;
+import org.francis.p2p.worksharing.network.NetworkManager.HibernationMode;
+import org.francis.p2p.worksharing.network.NetworkManager.RequestStrategy;
+import org.francis.p2p.worksharing.network.NetworkManager.SolutionMode;
+import org.francis.p2p.worksharing.network.NetworkManager.SplitPolicy;
+import org.francis.p2p.worksharing.network.NetworkManager.TerminationMode;
+import org.francis.p2p.worksharing.smp.HypercubeTopology;
+import org.francis.p2p.worksharing.smp.SMPWorkerId;
+import org.francis.p2p.worksharing.smp.Topology;
+import org.francis.p2p.worksharing.smp.WorkSharerFactory;
+
+/**
+ * Runs a network of NetworkManagers under a virtual clock, to predict how a protocol setting behaves with more workers
+ * than there is hardware for. Every message takes the same latency to arrive and every call to a WorkSharer's expand
+ * takes the same time, so the WorkSharers should do no real work of their own. Only one worker runs at a time, so a
+ * simulation with the same settings and seed always gives the same report, however many cores the machine has.
+ *
+ * This is not a single threaded event loop. A NetworkManager waits for messages part way through manageNetwork, so
+ * each simulated worker needs a thread of its own, parked while it waits for its turn. By default these are platform
+ * threads with a small stack, and handing the turn from one to the next costs a context switch, which limits a
+ * simulation to roughly fifty thousand messages a second of real time. On a JVM which has virtual threads a
+ * virtual thread factory makes each hand over far cheaper. A RING request visits every edge of the topology before it
+ * fails, so the messages of a starved network grow with the square of its size, and networks of thousands of workers
+ * are only practical on virtual threads, with RANDOM_VICTIM requests or with trees large enough to keep them busy.
+ *
+ * The settings are those of an SMPRuntime and must be made before run is called. A simulated network can't be
+ * checkpointed, every worker's requestCheckpoint throws.
+ */
+public class Simulation {
+
+    private static final long STACK_SIZE = 256 * 1024;
+
+    private final int workerCount;
+    private final WorkSharerFactory factory;
+    private Topology topology;
+    private RequestStrategy requestStrategy;
+    private int maxAttempts;
+    private int workSharingThreshold;
+    private HibernationMode hibernationMode;
+    private TerminationMode terminationMode;
+    private int lowWatermark;
+    private SolutionMode solutionMode;
+    private int solutionBatchSize;
+    private SplitPolicy splitPolicy;
+    private int fixedSplit;
+    private long latency;
+    private long expandTime;
+    private long seed;
+    private ThreadFactory threadFactory;
+
+    public Simulation(int workerCount, WorkSharerFactory factory) {
+        if (workerCount < 1) throw new IllegalArgumentException("A network needs at least one worker, got " + workerCount);
+        this.workerCount = workerCount;
+        this.factory = factory;
+        this.topology = new HypercubeTopology();
+        this.requestStrategy = RequestStrategy.RING;
+        this.maxAttempts = 0;
+        this.workSharingThreshold = 2;
+        this.hibernationMode = HibernationMode.TIMED_BACKOFF;
+        this.terminationMode = TerminationMode.COUNTING;
+        this.solutionMode = SolutionMode.FIRST;
+        this.splitPolicy = SplitPolicy.DONOR;
+        this.latency = 10000;
+        this.expandTime = 1000;
+        this.threadFactory = new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable worker) {
+                Thread thread = new Thread(null, worker, "sim-worker", STACK_SIZE);
+                thread.setDaemon(true); // A stalled simulation leaves its workers parked
+                return thread;
+            }
+        };
+    }
+
+    public Simulation setTopology(Topology topology) {
+        this.topology = topology;
+        return this;
+    }
+
+    /**
+     * @param maxAttempts the number of victims a RANDOM_VICTIM request visits, ignored for RING requests
+     */
+    public Simulation setRequestStrategy(RequestStrategy requestStrategy, int maxAttempts) {
+        this.requestStrategy = requestStrategy;
+        this.maxAttempts = maxAttempts;
+        return this;
+    }
+
+    public Simulation setWorkSharingThreshold(int workSharingThreshold) {
+        this.workSharingThreshold = workSharingThreshold;
+        return this;
+    }
+
+    public Simulation setHibernationMode(HibernationMode hibernationMode) {
+        this.hibernationMode = hibernationMode;
+        return this;
+    }
+
+    public Simulation setTerminationMode(TerminationMode terminationMode) {
+        this.terminationMode = terminationMode;
+        return this;
+    }
+
+    /**
+     * @param lowWatermark used by workers whose WorkSharer is a PrefetchingWorkSharer, zero turns prefetching off
+     */
+    public Simulation setLowWatermark(int lowWatermark) {
+        this.lowWatermark = lowWatermark;
+        return this;
+    }
+
+    /**
+     * In ALL mode the solutions are only counted, in OPTIMUM mode the incumbent reaches every worker at once.
+     */
+    public Simulation setSolutionMode(SolutionMode solutionMode, int batchSize) {
+        this.solutionMode = solutionMode;
+        this.solutionBatchSize = batchSize;
+        return this;
+    }
+
+    /**
+     * @param fixedUnits the number of units given away by the FIXED policy, ignored by the others
+     */
+    public Simulation setSplitPolicy(SplitPolicy splitPolicy, int fixedUnits) {
+        this.splitPolicy = splitPolicy;
+        this.fixedSplit = fixedUnits;
+        return this;
+    }
+
+    /**
+     * @param latency the virtual nanoseconds every message takes to reach the next worker, 10 micros by default
+     */
+    public Simulation setLatency(long latency) {
+        this.latency = latency;
+        return this;
+    }
+
+    /**
+     * @param expandTime the virtual nanoseconds every expansion takes, 1 micro by default
+     */
+    public Simulation setExpandTime(long expandTime) {
+        this.expandTime = expandTime;
+        return this;
+    }
+
+    /**
+     * @param seed picks the victims of RANDOM_VICTIM requests
+     */
+    public Simulation setSeed(long seed) {
+        this.seed = seed;
+        return this;
+    }
+
+    /**
+     * @param threadFactory creates the thread of each simulated worker
+     */
+    public Simulation setThreadFactory(ThreadFactory threadFactory) {
+        this.threadFactory = threadFactory;
+        return this;
+    }
+
+    /**
+     * Runs the simulation until every worker has stopped.
+     *
+     * @throws IllegalStateException if the network stalled, with workers waiting for messages which were never sent, or
+     * a worker threw
+     */
+    public SimulationReport run() throws InterruptedException {
+        SimMessageManager messageManager = new SimMessageManager(workerCount, latency);
+        Random seeds = new Random(seed);
+        Thread[] threads = new Thread[workerCount];
+        for (int i = 0; i < workerCount; i++) {
+            SMPWorkerId id = new SMPWorkerId(i);
+            SimCommunicator comm = new SimCommunicator(messageManager, topology, id, requestStrategy, maxAttempts, seeds.nextLong());
+            NetworkManager manager = new NetworkManager(comm, workerCount, workSharingThreshold, null);
+            manager.setClock(messageManager);
+            manager.setCheckpointSerializer(null); // Nothing here could read a checkpoint back, so any request fails at once
+            manager.setHibernationMode(hibernationMode);
+            manager.setTerminationMode(terminationMode);
+            manager.setLowWatermark(lowWatermark);
+            manager.setSolutionMode(solutionMode, solutionBatchSize);
+            manager.setSplitPolicy(splitPolicy, fixedSplit);
+            ExpandingWorkSharer workSharer = factory.create(i, workerCount);
+            threads[i] = threadFactory.newThread(new Worker(id, manager, workSharer, messageManager));
+            threads[i].setName("sim-worker-" + i);
+        }
+        for (Thread thread : threads) {
+            thread.start();
+        }
+        messageManager.run();
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        return new SimulationReport(workerCount, messageManager.result(), messageManager.resultTime(), messageManager.stopTime(), messageManager.busyTime(), messageManager.busyTimeToResult(), messageManager.solutionCount(), messageManager.messageCounts());
+    }
+
+    private class Worker implements Runnable {
+
+        private final SMPWorkerId id;
+        private final NetworkManager manager;
+        private final ExpandingWorkSharer workSharer;
+        private final SimMessageManager messageManager;
+
+        Worker(SMPWorkerId id, NetworkManager manager, ExpandingWorkSharer workSharer, SimMessageManager messageManager) {
+            this.id = id;
+            this.manager = manager;
+            this.workSharer = workSharer;
+            this.messageManager = messageManager;
+        }
+
+        @Override
+        public void run() {
+            try {
+                messageManager.awaitFirstTurn(id);
+                while (manager.manageNetwork(workSharer)) {
+                    workSharer.expand();
+                    messageManager.work(id, expandTime);
+                }
+            } catch (Throwable t) {
+                messageManager.fail(t); // Ignored if we are only unwinding from another worker's failure
+            } finally {
+                messageManager.stopped(id);
+            }
+        }
+    }
+}
@@ -0,0 +1,96 @@
+package org.francis.p2p.worksharing.sim;
+
+import java.util.Map;
+
+import org.francis.p2p.worksharing.network.message.ResultMessage;
+
+/**
+ * What happened in one run of a Simulation. Times are in virtual nanoseconds.
+ */
+public class SimulationReport {
+
+    private final int workerCount;
+    private final ResultMessage result;
+    private final long timeToSolution;
+    private final long runTime;
+    private final long busyTime;
+    private final long busyTimeToSolution;
+    private final long solutionCount;
+    private final Map<String, Long> messageCounts;
+
+    SimulationReport(int workerCount, ResultMessage result, long timeToSolution, long runTime, long busyTime, long busyTimeToSolution, long solutionCount, Map<String, Long> messageCounts) {
+        this.workerCount = workerCount;
+        this.result = result;
+        this.timeToSolution = timeToSolution;
+        this.runTime = runTime;
+        this.busyTime = busyTime;
+        this.busyTimeToSolution = busyTimeToSolution;
+        this.solutionCount = solutionCount;
+        this.messageCounts = messageCounts;
+    }
+
+    public int getWorkerCount() {
+        return workerCount;
+    }
+
+    public ResultMessage getResult() {
+        return result;
+    }
+
+    /**
+     * From the start of the simulation until the result was sent.
+     */
+    public long getTimeToSolution() {
+        return timeToSolution;
+    }
+
+    /**
+     * From the start of the simulation until the last worker stopped, after the shut down reached every worker.
+     */
+    public long getRunTime() {
+        return runTime;
+    }
+
+    /**
+     * The time every worker spent on work, added together.
+     */
+    public long getBusyTime() {
+        return busyTime;
+    }
+
+    /**
+     * The share of the workers' time, up to the result, which was not spent on work. Work done after the result was
+     * sent, before the shut down reached a worker, is not counted.
+     */
+    public double getIdleFraction() {
+        if (timeToSolution == 0) return 0;
+        return 1 - busyTimeToSolution / ((double) timeToSolution * workerCount);
+    }
+
+    /**
+     * The number of solutions found in the ALL solution mode.
+     */
+    public long getSolutionCount() {
+        return solutionCount;
+    }
+
+    /**
+     * The number of messages sent of each type, counting each hop of a message passed on by the workers it visits.
+     */
+    public Map<String, Long> getMessageCounts() {
+        return messageCounts;
+    }
+
+    public long getMessageCount() {
+        long total = 0;
+        for (Long count : messageCounts.values()) {
+            total += count.longValue();
+        }
+        return total;
+    }
+
+    @Override
+    public String toString() {
+        return workerCount + " workers, time to solution " + timeToSolution + "ns, idle " + Math.round(getIdleFraction() * 1000) / 10.0 + "%, " + getMessageCount() + " messages " + messageCounts;
+    }
+}
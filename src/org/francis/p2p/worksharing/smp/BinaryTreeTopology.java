@@ -0,0 +1,20 @@
+package org.francis.p2p.worksharing.smp;
+
+/**
+ * Workers are arranged as a binary heap, worker i has the children 2i+1 and 2i+2. Broadcasts take O(log N) hops.
+ */
+public class BinaryTreeTopology implements Topology {
+
+    @Override
+    public int[] neighbours(int worker, int workerCount) {
+        int left = 2 * worker + 1;
+        int right = 2 * worker + 2;
+        int count = (worker == 0 ? 0 : 1) + (left < workerCount ? 1 : 0) + (right < workerCount ? 1 : 0);
+        int[] neighbours = new int[count];
+        int i = 0;
+        if (worker != 0) neighbours[i++] = (worker - 1) / 2;
+        if (left < workerCount) neighbours[i++] = left;
+        if (right < workerCount) neighbours[i++] = right;
+        return neighbours;
+    }
+}
@@ -0,0 +1,15 @@
+package org.francis.p2p.worksharing.smp;
+
+/**
+ * Worker i is linked to i-1 and i+1. Broadcasts take O(N) hops.
+ */
+public class ChainTopology implements Topology {
+
+    @Override
+    public int[] neighbours(int worker, int workerCount) {
+        if (workerCount == 1) return new int[0];
+        if (worker == 0) return new int[] {1};
+        if (worker == workerCount - 1) return new int[] {worker - 1};
+        return new int[] {worker - 1, worker + 1};
+    }
+}
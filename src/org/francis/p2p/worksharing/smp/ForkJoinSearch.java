@@ -0,0 +1,108 @@
+package org.francis.p2p.worksharing.smp;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.BiConsumer;
+
+import org.francis.p2p.worksharing.network.ExpandingWorkSharer;
+import org.francis.p2p.worksharing.network.message.ResultMessage;
+
+/**
+ * Runs a search on a ForkJoinPool instead of the peer to peer protocol. A task expands the work held by a WorkSharer
+ * until it needs more, and while the pool's own queue is running short it gives away half its work in a newly forked
+ * task, leaving the pool's work stealing to balance the load. There are no work requests, network changes or
+ * hibernation.
+ *
+ * Each pool thread keeps one WorkSharer, created by the factory the first time it is needed, and runs every task it
+ * takes with it. Tasks are forked and never joined, a count of the tasks not yet finished tells us when the search
+ * space is exhausted.
+ */
+class ForkJoinSearch {
+
+    private static final int SURPLUS_TASKS = 2; // Queued tasks beyond which we stop splitting
+
+    private final int parallelism;
+    private final WorkSharerFactory factory;
+    private final int workSharingThreshold;
+    private final ForkJoinPool pool;
+    private final CompletableFuture<ResultMessage> result;
+    private final AtomicInteger pending; // Forked tasks which have not yet finished
+    private final AtomicInteger nextWorker;
+    private final ThreadLocal<ExpandingWorkSharer> workSharers;
+
+    ForkJoinSearch(int parallelism, WorkSharerFactory factory, int workSharingThreshold) {
+        this.parallelism = parallelism;
+        this.factory = factory;
+        this.workSharingThreshold = workSharingThreshold;
+        this.pool = new ForkJoinPool(parallelism);
+        this.result = new CompletableFuture<ResultMessage>();
+        this.pending = new AtomicInteger();
+        this.nextWorker = new AtomicInteger(1); // Worker 0 is the seed created by start
+        this.workSharers = new ThreadLocal<ExpandingWorkSharer>() {
+            @Override
+            protected ExpandingWorkSharer initialValue() {
+                // A pool may add compensating threads beyond its parallelism, so numbers can pass the worker count
+                return ForkJoinSearch.this.factory.create(nextWorker.getAndIncrement(), ForkJoinSearch.this.parallelism);
+            }
+        };
+    }
+
+    CompletableFuture<ResultMessage> start() {
+        ExpandingWorkSharer seed = factory.create(0, parallelism);
+        result.whenComplete(new BiConsumer<ResultMessage, Throwable>() {
+            @Override
+            public void accept(ResultMessage message, Throwable failure) {
+                pool.shutdownNow(); // Also stops the search when the future is cancelled
+            }
+        });
+        pending.incrementAndGet();
+        pool.execute(new SearchTask(seed, null));
+        return result;
+    }
+
+    private class SearchTask extends RecursiveAction {
+
+        private static final long serialVersionUID = -3903851113574693150L;
+
+        private final ExpandingWorkSharer seed; // Only the first task has its own WorkSharer
+        private final Object work;
+
+        SearchTask(ExpandingWorkSharer seed, Object work) {
+            this.seed = seed;
+            this.work = work;
+        }
+
+        @Override
+        protected void compute() {
+            try {
+                ExpandingWorkSharer workSharer = seed;
+                if (workSharer == null) {
+                    workSharer = workSharers.get();
+                    workSharer.receiveWork(work);
+                }
+                search(workSharer);
+            } catch (Throwable t) {
+                result.completeExceptionally(t);
+            } finally {
+                if (pending.decrementAndGet() == 0) result.complete(new ResultMessage(false));
+            }
+        }
+
+        private void search(ExpandingWorkSharer workSharer) {
+            while (!workSharer.needsWork()) {
+                if (result.isDone()) return;
+                if (workSharer.sharableWork() >= workSharingThreshold && getSurplusQueuedTaskCount() < SURPLUS_TASKS) {
+                    pending.incrementAndGet();
+                    new SearchTask(null, workSharer.giveWork()).fork();
+                }
+                workSharer.expand();
+                if (workSharer.isComplete()) {
+                    result.complete(new ResultMessage(workSharer.getSuccessMessage()));
+                    return;
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,27 @@
+package org.francis.p2p.worksharing.smp;
+
+/**
+ * The binomial spanning tree of a hypercube. Every edge joins two workers whose ids differ in a single bit, the parent
+ * of worker i is i with its lowest set bit cleared. Broadcasts take at most log2(N) hops. The worker count need not be
+ * a power of two, missing corners of the cube are simply left out.
+ */
+public class HypercubeTopology implements Topology {
+
+    @Override
+    public int[] neighbours(int worker, int workerCount) {
+        // Worker 0 has a child in every dimension, any other worker only in those below its lowest set bit
+        int dimensions = worker == 0 ? 32 - Integer.numberOfLeadingZeros(Math.max(workerCount - 1, 0)) : Integer.numberOfTrailingZeros(worker);
+        int count = worker == 0 ? 0 : 1;
+        for (int d = 0; d < dimensions; d++) {
+            if ((worker | (1 << d)) < workerCount) count++;
+        }
+        int[] neighbours = new int[count];
+        int i = 0;
+        if (worker != 0) neighbours[i++] = worker & (worker - 1);
+        for (int d = 0; d < dimensions; d++) {
+            int child = worker | (1 << d);
+            if (child < workerCount) neighbours[i++] = child;
+        }
+        return neighbours;
+    }
+}
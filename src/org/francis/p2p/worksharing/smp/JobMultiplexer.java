@@ -0,0 +1,236 @@
+package org.francis.p2p.worksharing.smp;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.francis.p2p.worksharing.network.ExpandingWorkSharer;
+import org.francis.p2p.worksharing.network.message.ResultMessage;
+
+/**
+ * The WorkSharer of one worker of an SMPWorkerPool, holding the worker's share of every job in flight. Each job has a
+ * WorkSharer of its own, created by the job's factory the first time the worker is given some of its work, and the
+ * work given to another worker is wrapped in a JobWork with the id of its job so the receiver can hand it to the right
+ * one. The job with the most work to spare is the one shared, so a worker which has run out steals from whichever job
+ * can best afford it.
+ *
+ * Submitted jobs are only taken by a worker which is awake, between its expansions, and are then shared out over the
+ * network like any other work. A hibernating worker must only be given work by the network, or the termination
+ * protocol could count it out of work while it has some.
+ *
+ * A job is finished once none of its work is left, which inside one JVM can simply be counted. Each job counts the
+ * WorkSharers holding some of its work and the pieces of its work on their way between workers.
+ */
+class JobMultiplexer implements ExpandingWorkSharer {
+
+    private static final JobWork NO_WORK = new JobWork(-1, null);
+
+    private final int workerCount;
+    private final Map<Integer, Job> jobs; // Every unfinished job of the pool, by id
+    private final Queue<Job> submitted; // Jobs whose seed hasn't yet been taken by a worker
+    private final List<Share> shares;
+    private int next; // The share expanded next, the jobs take turns
+
+    JobMultiplexer(int workerCount, Map<Integer, Job> jobs, Queue<Job> submitted) {
+        this.workerCount = workerCount;
+        this.jobs = jobs;
+        this.submitted = submitted;
+        this.shares = new ArrayList<Share>();
+    }
+
+    @Override
+    public void expand() {
+        dropFinishedJobs();
+        if (!submitted.isEmpty()) takeSubmittedJob();
+        Share share = nextShare();
+        if (share == null) return;
+        try {
+            share.workSharer.expand();
+            if (share.workSharer.isComplete())
+                share.job.result.complete(new ResultMessage(share.workSharer.getSuccessMessage()));
+            else if (share.workSharer.needsWork())
+                share.job.workGone();
+        } catch (RuntimeException e) {
+            share.job.result.completeExceptionally(e); // Only this job fails, the others carry on
+        }
+    }
+
+    private Share nextShare() {
+        for (int i = 0; i < shares.size(); i++) {
+            if (next >= shares.size()) next = 0;
+            Share share = shares.get(next++);
+            if (!share.job.isFinished() && !share.workSharer.needsWork()) return share;
+        }
+        return null;
+    }
+
+    // The job whose work we offered may have finished since
+    @Override
+    public Object giveWork() {
+        Share share = richestShare();
+        if (share == null || share.workSharer.needsWork()) return NO_WORK;
+        Job job = share.job;
+        try {
+            Object work = share.workSharer.giveWork();
+            job.live.incrementAndGet();
+            if (share.workSharer.needsWork()) job.workGone();
+            return new JobWork(job.id, work);
+        } catch (RuntimeException e) {
+            job.result.completeExceptionally(e);
+            return NO_WORK;
+        }
+    }
+
+    @Override
+    public void receiveWork(Object stack) {
+        JobWork jobWork = (JobWork) stack;
+        if (jobWork.work == null) return;
+        Job job = jobs.get(jobWork.jobId);
+        if (job == null || job.isFinished()) return; // It finished while its work was on its way
+        Share share = shareOf(job);
+        try {
+            if (share == null) {
+                share = new Share(job, job.factory.create(job.nextWorker.getAndIncrement(), workerCount));
+                shares.add(share);
+            }
+            boolean hadWork = !share.workSharer.needsWork();
+            share.workSharer.receiveWork(jobWork.work);
+            if (hadWork || share.workSharer.needsWork()) job.workGone();
+        } catch (RuntimeException e) {
+            job.result.completeExceptionally(e);
+        }
+    }
+
+    private Share shareOf(Job job) {
+        for (Share share : shares) {
+            if (share.job == job) return share;
+        }
+        return null;
+    }
+
+    @Override
+    public int sharableWork() {
+        Share share = richestShare();
+        return share == null ? 0 : share.workSharer.sharableWork();
+    }
+
+    private Share richestShare() {
+        Share richest = null;
+        int mostSharable = 0;
+        for (Share share : shares) {
+            if (share.job.isFinished()) continue;
+            int sharable = share.workSharer.sharableWork();
+            if (richest == null || sharable > mostSharable) {
+                richest = share;
+                mostSharable = sharable;
+            }
+        }
+        return richest;
+    }
+
+    // A job can finish on another thread at any time, so a finished job's work still counts until our next expansion
+    // drops it, otherwise we could run out of work in the middle of the NetworkManager's checks
+    @Override
+    public boolean needsWork() {
+        for (Share share : shares) {
+            if (!share.workSharer.needsWork()) return false;
+        }
+        return true;
+    }
+
+    private void dropFinishedJobs() {
+        for (Iterator<Share> iterator = shares.iterator(); iterator.hasNext();) {
+            Share share = iterator.next();
+            if (share.job.isFinished()) iterator.remove();
+        }
+    }
+
+    /**
+     * Takes the seed of the next submitted job which hasn't already finished, returning false if there isn't one. Must
+     * only be called while the worker is awake.
+     */
+    boolean takeSubmittedJob() {
+        Job job = submitted.poll();
+        while (job != null && job.isFinished()) {
+            job = submitted.poll();
+        }
+        if (job == null) return false;
+        shares.add(new Share(job, job.seed));
+        return true;
+    }
+
+    // Each job finishes by itself, the network only stops when the pool has nothing left to do
+    @Override
+    public boolean isComplete() {
+        return false;
+    }
+
+    @Override
+    public Object getSuccessMessage() {
+        return null;
+    }
+
+    @Override
+    public Object getFailureMessage() {
+        return null;
+    }
+
+    /**
+     * A job submitted to an SMPWorkerPool.
+     */
+    static class Job {
+
+        final int id;
+        final WorkSharerFactory factory;
+        final ExpandingWorkSharer seed; // Created with the whole problem when the job is submitted
+        final CompletableFuture<ResultMessage> result;
+        final AtomicInteger live; // The WorkSharers holding some of its work and the pieces of it being sent
+        final AtomicInteger nextWorker; // Passed to the factory for each new WorkSharer, 0 was the seed
+
+        Job(int id, WorkSharerFactory factory, ExpandingWorkSharer seed) {
+            this.id = id;
+            this.factory = factory;
+            this.seed = seed;
+            this.result = new CompletableFuture<ResultMessage>();
+            this.live = new AtomicInteger(1);
+            this.nextWorker = new AtomicInteger(1);
+        }
+
+        boolean isFinished() {
+            return result.isDone();
+        }
+
+        void workGone() {
+            if (live.decrementAndGet() == 0) result.complete(new ResultMessage(false));
+        }
+    }
+
+    /**
+     * Some of the work of a job, as it is sent from one worker to another.
+     */
+    static class JobWork {
+
+        final int jobId;
+        final Object work;
+
+        JobWork(int jobId, Object work) {
+            this.jobId = jobId;
+            this.work = work;
+        }
+    }
+
+    private static class Share {
+
+        final Job job;
+        final ExpandingWorkSharer workSharer;
+
+        Share(Job job, ExpandingWorkSharer workSharer) {
+            this.job = job;
+            this.workSharer = workSharer;
+        }
+    }
+}
@@ -1,28 +1,94 @@
 package org.francis.p2p.worksharing.smp;
 
+import java.util.Arrays;
+import java.util.Random;
+
 import org.francis.p2p.worksharing.network.Communicator;
 import org.francis.p2p.worksharing.network.NetworkManager.Direction;
+import org.francis.p2p.worksharing.network.NetworkManager.RequestStrategy;
+import org.francis.p2p.worksharing.network.WorkerId;
+import org.francis.p2p.worksharing.network.message.Incumbent;
 import org.francis.p2p.worksharing.network.message.NetworkChange;
 import org.francis.p2p.worksharing.network.message.NetworkChange.ChangeType;
 import org.francis.p2p.worksharing.network.message.NetworkMessage;
 import org.francis.p2p.worksharing.network.message.PropagatableMessage;
 import org.francis.p2p.worksharing.network.message.ResultMessage;
+import org.francis.p2p.worksharing.network.message.SolutionBatch;
+import org.francis.p2p.worksharing.network.message.TerminationToken;
+import org.francis.p2p.worksharing.network.message.WorkAvailable;
 import org.francis.p2p.worksharing.network.message.WorkRequest;
 import org.francis.p2p.worksharing.network.message.WorkResponse;
 
+/**
+ * Passes messages between workers in the same JVM. The workers are either linked into a chain by their top and bottom
+ * workers, or arranged by a Topology.
+ *
+ * When a Topology is used the upWorker of a PropagatableMessage holds the worker which last passed it on, this is all
+ * that is needed to flood a broadcast or continue a request's walk around the tree.
+ */
 public class SMPCommunicator implements Communicator {
 
     private final SMPMessageManager messageManager;
     private final SMPWorkerId topWorker;
     private final SMPWorkerId bottomWorker;
+    private final SMPWorkerId[] neighbours; // Null unless we are arranged by a Topology
     private final SMPWorkerId self;
+    private final RequestStrategy requestStrategy;
+    private final int maxAttempts;
+    private final Random random;
+    private int requestSequence; // The sequence of the last request we made
 
     public SMPCommunicator(SMPMessageManager messageManager, SMPWorkerId topWorker, SMPWorkerId bottomWorker, SMPWorkerId self) {
+        this(messageManager,topWorker,bottomWorker,self,RequestStrategy.RING,0);
+    }
+
+    /**
+     * @param maxAttempts the number of victims a RANDOM_VICTIM request visits before it is returned to the requester,
+     * ignored for RING requests.
+     */
+    public SMPCommunicator(SMPMessageManager messageManager, SMPWorkerId topWorker, SMPWorkerId bottomWorker, SMPWorkerId self, RequestStrategy requestStrategy, int maxAttempts) {
         super();
+        if (requestStrategy == RequestStrategy.RANDOM_VICTIM && maxAttempts < 1) throw new IllegalArgumentException("A random victim request must make at least one attempt.");
         this.messageManager = messageManager;
         this.topWorker = topWorker;
         this.bottomWorker = bottomWorker;
+        this.neighbours = null;
+        this.self = self;
+        this.requestStrategy = requestStrategy;
+        this.maxAttempts = maxAttempts;
+        this.random = new Random();
+    }
+
+    public SMPCommunicator(SMPMessageManager messageManager, Topology topology, SMPWorkerId self) {
+        this(messageManager,topology,self,RequestStrategy.RING,0);
+    }
+
+    /**
+     * @param maxAttempts the number of victims a RANDOM_VICTIM request visits before it is returned to the requester,
+     * ignored for RING requests.
+     */
+    public SMPCommunicator(SMPMessageManager messageManager, Topology topology, SMPWorkerId self, RequestStrategy requestStrategy, int maxAttempts) {
+        this(messageManager,topology,self,requestStrategy,maxAttempts,new Random());
+    }
+
+    /**
+     * @param random picks the victims of RANDOM_VICTIM requests, a seeded Random makes them repeatable
+     */
+    public SMPCommunicator(SMPMessageManager messageManager, Topology topology, SMPWorkerId self, RequestStrategy requestStrategy, int maxAttempts, Random random) {
+        super();
+        if (requestStrategy == RequestStrategy.RANDOM_VICTIM && maxAttempts < 1) throw new IllegalArgumentException("A random victim request must make at least one attempt.");
+        int[] neighbourIds = topology.neighbours(self.getId(), messageManager.workerCount());
+        this.messageManager = messageManager;
+        this.topWorker = null;
+        this.bottomWorker = null;
+        this.neighbours = new SMPWorkerId[neighbourIds.length];
+        for (int i = 0; i < neighbourIds.length; i++) {
+            this.neighbours[i] = new SMPWorkerId(neighbourIds[i]);
+        }
         this.self = self;
+        this.requestStrategy = requestStrategy;
+        this.maxAttempts = maxAttempts;
+        this.random = random;
     }
 
     @Override
@@ -38,9 +104,14 @@ public class SMPCommunicator implements Communicator {
             return messageManager.timedReceive(self, timeout);
     }
 
+    @Override
+    public int receive(NetworkMessage[] messages) {
+        return messageManager.nonblockingReceive(self, messages);
+    }
+
     @Override
     public void sendWorkResponse(WorkRequest request, Object workstack) {
-        WorkResponse response = new WorkResponse(self, workstack);
+        WorkResponse response = new WorkResponse(self, workstack, request.hops);
         messageManager.send((SMPWorkerId)request.requestingWorker, response);
     }
     
@@ -51,14 +122,24 @@ public class SMPCommunicator implements Communicator {
     
     @Override
     public void broadcastNetworkIncrease() {
-        NetworkChange msg = new NetworkChange(topWorker, bottomWorker, null, ChangeType.INC, self);
-        propagate(msg,Direction.UP);
+        broadcastNetworkChange(ChangeType.INC, false);
     }
     
     @Override
-    public void broadcastNetworkDecrease() {
-        NetworkChange msg = new NetworkChange(topWorker, bottomWorker, null, ChangeType.DEC, self);
-        propagate(msg,Direction.UP);
+    public void broadcastNetworkDecrease(boolean checkpointed) {
+        broadcastNetworkChange(ChangeType.DEC, checkpointed);
+    }
+    
+    // A decrease carries the best solution we know of, so it reaches whoever finds the network exhausted
+    private void broadcastNetworkChange(ChangeType changeType, boolean checkpointed) {
+        Incumbent incumbent = changeType == ChangeType.DEC ? messageManager.incumbent() : null;
+        if (neighbours != null) {
+            flood(new NetworkChange(self, null, null, changeType, self, incumbent, checkpointed), null);
+        }
+        else {
+            NetworkChange msg = new NetworkChange(topWorker, bottomWorker, null, changeType, self, incumbent, checkpointed);
+            propagate(msg,Direction.UP);
+        }
     }
     
     @Override
@@ -66,20 +147,134 @@ public class SMPCommunicator implements Communicator {
         messageManager.shutDownNetwork();
     }
     
+    @Override
+    public void broadcastCheckpoint(String directory) {
+        messageManager.checkpointNetwork(directory);
+    }
+    
     @Override
     public void broadcastWorkRequest() {
-        WorkRequest msg = new WorkRequest(topWorker, bottomWorker, self);
-        propagate(msg,Direction.UP);
+        int sequence = nextRequestSequence();
+        if (requestStrategy == RequestStrategy.RANDOM_VICTIM && messageManager.workerCount() > 1) {
+            WorkRequest msg = new WorkRequest(null, null, self, 0, true, sequence);
+            messageManager.send(randomVictim(msg), msg);
+        }
+        else {
+            broadcastRingWorkRequest(sequence);
+        }
+    }
+    
+    @Override
+    public void sendWorkRequest(WorkerId victim) {
+        messageManager.send((SMPWorkerId)victim, new WorkRequest(null, null, self, 0, true, nextRequestSequence()));
+    }
+    
+    // Kept positive so it can be written as a varint, so it wraps round to 0 and must be compared with WorkRequest.isBefore
+    private int nextRequestSequence() {
+        requestSequence = (requestSequence + 1) & Integer.MAX_VALUE;
+        return requestSequence;
+    }
+    
+    @Override
+    public void sendWorkAvailable(WorkerId hungryWorker, int requestSequence) {
+        if (self.equals(hungryWorker)) return; // Our own request passing back through us on a topology walk
+        messageManager.send((SMPWorkerId)hungryWorker, new WorkAvailable(self, requestSequence));
+    }
+    
+    @Override
+    public void sendTerminationToken(TerminationToken token) {
+        messageManager.send(new SMPWorkerId((self.getId() + 1) % messageManager.workerCount()), token);
+    }
+    
+    @Override
+    public boolean isTerminationInitiator() {
+        return self.getId() == 0;
+    }
+    
+    private void broadcastRingWorkRequest(int sequence) {
+        if (neighbours != null) {
+            WorkRequest msg = new WorkRequest(self, null, self, sequence);
+            messageManager.send(neighbours.length == 0 ? self : neighbours[0], msg);
+        }
+        else {
+            WorkRequest msg = new WorkRequest(topWorker, bottomWorker, self, sequence);
+            propagate(msg,Direction.UP);
+        }
+    }
+    
+    // A request that has run out of attempts, or has no one left to try, goes back to the requester which then walks
+    // the chain with it
+    private void forwardDirectedRequest(WorkRequest request) {
+        if (self.equals(request.requestingWorker)) {
+            broadcastRingWorkRequest(request.sequence);
+            return;
+        }
+        WorkRequest msg = (WorkRequest)request.constructNew(null, null, request.finalDestination);
+        if (msg.hops < maxAttempts && messageManager.workerCount() > 2)
+            messageManager.send(randomVictim(msg), msg);
+        else
+            messageManager.send((SMPWorkerId)msg.requestingWorker, msg);
+    }
+    
+    // Picks any worker other than the requester and ourselves, there must be at least one
+    private SMPWorkerId randomVictim(WorkRequest request) {
+        int workerCount = messageManager.workerCount();
+        int requester = ((SMPWorkerId)request.requestingWorker).getId();
+        while (true) {
+            int victim = random.nextInt(workerCount);
+            if (victim != requester && victim != self.getId()) return new SMPWorkerId(victim);
+        }
     }
     
     @Override
     public boolean isPoisonWorkRequest(WorkRequest message) {
-        return (this.self.equals(message.requestingWorker));
+        if (message.directed || !this.self.equals(message.requestingWorker)) return false;
+        // A request walking a tree passes back through the requester on its way round, it is only poison once every
+        // edge has been walked
+        return neighbours == null || neighbours.length == 0 || nextOnWalk(message.upWorker) == neighbours[0];
+    }
+    
+    @Override
+    public boolean isOwnWorkRequest(WorkRequest message) {
+        return self.equals(message.requestingWorker);
+    }
+    
+    // Every message goes straight into its mailbox
+    @Override
+    public boolean isDeliveryCausal() {
+        return true;
+    }
+    
+    // Walks the tree by always leaving a worker by the edge after the one we arrived on, visiting every worker
+    private SMPWorkerId nextOnWalk(WorkerId arrivedFrom) {
+        for (int i = 0; i < neighbours.length; i++) {
+            if (neighbours[i].equals(arrivedFrom)) return neighbours[(i + 1) % neighbours.length];
+        }
+        return neighbours[0];
+    }
+    
+    // Passes a broadcast on to every neighbour except the one it came from
+    private void flood(PropagatableMessage msg, WorkerId arrivedFrom) {
+        for (SMPWorkerId neighbour : neighbours) {
+            if (!neighbour.equals(arrivedFrom)) messageManager.send(neighbour, msg);
+        }
+    }
+    
+    private void propagateOverTopology(PropagatableMessage msg) {
+        if (msg instanceof WorkRequest) {
+            messageManager.send(nextOnWalk(msg.upWorker), msg.constructNew(self, null, msg.finalDestination));
+        } else {
+            flood(msg.constructNew(self, null, msg.finalDestination), msg.upWorker);
+        }
     }
 
     @Override
     public void propagateMessage(PropagatableMessage msg) {
-        if (self.equals(msg.downWorker)) { // This means that the message
+        if (msg instanceof WorkRequest && ((WorkRequest)msg).directed) {
+            forwardDirectedRequest((WorkRequest)msg);
+        } else if (neighbours != null) {
+            propagateOverTopology(msg);
+        } else if (self.equals(msg.downWorker)) { // This means that the message
                                                // just came from above
             PropagatableMessage upNetworkMessage = msg.constructNew(msg.upWorker, bottomWorker, msg.finalDestination);
             propagate(upNetworkMessage, Direction.UP);
@@ -131,6 +326,21 @@ public class SMPCommunicator implements Communicator {
         messageManager.sendResult(result);
     }
     
+    @Override
+    public void sendSolutions(SolutionBatch batch) {
+        messageManager.sendSolutions(batch);
+    }
+    
+    @Override
+    public void publishIncumbent(Incumbent incumbent) {
+        messageManager.publishIncumbent(incumbent);
+    }
+    
+    @Override
+    public Incumbent bestIncumbent() {
+        return messageManager.incumbent();
+    }
+    
     /* (non-Javadoc)
      * @see org.francis.sat.network.Communicator#printSelf()
      */
@@ -140,6 +350,7 @@ public class SMPCommunicator implements Communicator {
     }
     
     public String toString() {
+        if (neighbours != null) return Arrays.toString(neighbours) + "<" + self + ">";
         return topWorker + "<" + self + ">" + bottomWorker;
     }
 }
\ No newline at end of file
@@ -0,0 +1,196 @@
+package org.francis.p2p.worksharing.smp;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLongFieldUpdater;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.atomic.AtomicReferenceFieldUpdater;
+import java.util.concurrent.locks.LockSupport;
+
+import org.francis.p2p.worksharing.network.message.NetworkMessage;
+
+/**
+ * An unbounded, lock free, multi producer single consumer mailbox. Only the worker which owns the mailbox may receive
+ * from it, any thread may send to it.
+ *
+ * Messages are stored in fixed size array chunks which are linked together as the mailbox grows. A sender claims a slot
+ * with a single atomic increment and writes its message into it, so sending never takes a lock and only allocates when
+ * a chunk is filled. The receiver parks when it waits for a message and a sender only pays for an unpark when the
+ * receiver is actually waiting.
+ *
+ * The fields written by senders and those written by the receiver are padded onto separate cache lines, and away from
+ * whatever is allocated next to the mailbox, so that busy workers don't slow each other down through false sharing.
+ */
+public class SMPMailbox extends SMPMailboxPadding2 {
+
+    public SMPMailbox() {
+        super(new SMPMailbox.Chunk(0));
+    }
+
+    public void send(NetworkMessage msg) {
+        if (msg == null) throw new NullPointerException("Cannot send a null message.");
+        Chunk chunk = producerChunk; // Must be read before the slot is claimed
+        long index = PRODUCER_INDEX.getAndIncrement(this);
+        chunk = findChunk(chunk, index);
+        // This volatile write must come before the read of waitingReceiver so either we see the receiver waiting or it
+        // sees our message
+        chunk.slots.set((int) (index - chunk.base), msg);
+        Thread receiver = waitingReceiver;
+        if (receiver != null) LockSupport.unpark(receiver);
+    }
+
+    private Chunk findChunk(Chunk chunk, long index) {
+        while (index >= chunk.base + CHUNK_SIZE) {
+            Chunk next = chunk.next;
+            if (next == null) {
+                Chunk created = new Chunk(chunk.base + CHUNK_SIZE);
+                next = Chunk.NEXT.compareAndSet(chunk, null, created) ? created : chunk.next;
+            }
+            chunk = next;
+        }
+        if (producerChunk.base < chunk.base) producerChunk = chunk;
+        return chunk;
+    }
+
+    /**
+     * Returns the next message or null if there isn't one. A message whose sender is part way through sending it is
+     * treated as not yet arrived.
+     */
+    public NetworkMessage poll() {
+        Chunk chunk = consumerChunk;
+        int offset = (int) (consumerIndex - chunk.base);
+        if (offset == CHUNK_SIZE) {
+            Chunk next = chunk.next;
+            if (next == null) return null;
+            consumerChunk = chunk = next;
+            offset = 0;
+        }
+        NetworkMessage msg = chunk.slots.get(offset);
+        if (msg == null) return null;
+        chunk.slots.lazySet(offset, null);
+        consumerIndex++;
+        return msg;
+    }
+
+    /**
+     * Moves up to messages.length messages, in the order they arrived, into messages and returns how many were moved.
+     * Never blocks. The position of the receiver is only written back once for the whole batch.
+     */
+    public int drainTo(NetworkMessage[] messages) {
+        Chunk chunk = consumerChunk;
+        long index = consumerIndex;
+        int count = 0;
+        while (count < messages.length) {
+            int offset = (int) (index - chunk.base);
+            if (offset == CHUNK_SIZE) {
+                Chunk next = chunk.next;
+                if (next == null) break;
+                chunk = next;
+                offset = 0;
+            }
+            NetworkMessage msg = chunk.slots.get(offset);
+            if (msg == null) break;
+            chunk.slots.lazySet(offset, null);
+            messages[count++] = msg;
+            index++;
+        }
+        consumerChunk = chunk;
+        consumerIndex = index;
+        return count;
+    }
+
+    public NetworkMessage take() throws InterruptedException {
+        NetworkMessage msg = poll();
+        if (msg != null) return msg;
+        waitingReceiver = Thread.currentThread();
+        try {
+            while ((msg = poll()) == null) {
+                if (Thread.interrupted()) throw new InterruptedException();
+                LockSupport.park(this);
+            }
+            return msg;
+        } finally {
+            waitingReceiver = null;
+        }
+    }
+
+    public NetworkMessage poll(long timeout, TimeUnit unit) throws InterruptedException {
+        NetworkMessage msg = poll();
+        if (msg != null) return msg;
+        long remaining = unit.toNanos(timeout);
+        long deadline = System.nanoTime() + remaining;
+        waitingReceiver = Thread.currentThread();
+        try {
+            while ((msg = poll()) == null) {
+                if (Thread.interrupted()) throw new InterruptedException();
+                if (remaining <= 0) return null;
+                LockSupport.parkNanos(this, remaining);
+                remaining = deadline - System.nanoTime();
+            }
+            return msg;
+        } finally {
+            waitingReceiver = null;
+        }
+    }
+
+    static final class Chunk {
+
+        static final AtomicReferenceFieldUpdater<Chunk, Chunk> NEXT = AtomicReferenceFieldUpdater.newUpdater(Chunk.class, Chunk.class, "next");
+
+        final long base;
+        final AtomicReferenceArray<NetworkMessage> slots;
+        volatile Chunk next;
+
+        Chunk(long base) {
+            this.base = base;
+            this.slots = new AtomicReferenceArray<NetworkMessage>(CHUNK_SIZE);
+        }
+    }
+}
+
+abstract class SMPMailboxPadding0 {
+    long p00, p01, p02, p03, p04, p05, p06, p07;
+}
+
+abstract class SMPMailboxProducerFields extends SMPMailboxPadding0 {
+
+    static final int CHUNK_SIZE = 256;
+
+    static final AtomicLongFieldUpdater<SMPMailboxProducerFields> PRODUCER_INDEX = AtomicLongFieldUpdater.newUpdater(SMPMailboxProducerFields.class, "producerIndex");
+
+    volatile long producerIndex;
+    volatile SMPMailbox.Chunk producerChunk; // A hint, always at or behind the chunk of the next claimed slot
+    volatile Thread waitingReceiver; // Read by every sender, only written when the receiver blocks
+
+    SMPMailboxProducerFields(SMPMailbox.Chunk first) {
+        this.producerIndex = 0;
+        this.producerChunk = first;
+    }
+}
+
+abstract class SMPMailboxPadding1 extends SMPMailboxProducerFields {
+    long p10, p11, p12, p13, p14, p15, p16, p17;
+
+    SMPMailboxPadding1(SMPMailbox.Chunk first) {
+        super(first);
+    }
+}
+
+abstract class SMPMailboxConsumerFields extends SMPMailboxPadding1 {
+
+    SMPMailbox.Chunk consumerChunk; // Only accessed by the receiving worker
+    long consumerIndex; // Only accessed by the receiving worker
+
+    SMPMailboxConsumerFields(SMPMailbox.Chunk first) {
+        super(first);
+        this.consumerChunk = first;
+        this.consumerIndex = 0;
+    }
+}
+
+abstract class SMPMailboxPadding2 extends SMPMailboxConsumerFields {
+    long p20, p21, p22, p23, p24, p25, p26, p27;
+
+    SMPMailboxPadding2(SMPMailbox.Chunk first) {
+        super(first);
+    }
+}
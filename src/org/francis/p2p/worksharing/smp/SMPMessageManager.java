@@ -1,25 +1,54 @@
 package org.francis.p2p.worksharing.smp;
 
-import java.util.HashMap;
-import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
 import java.util.concurrent.LinkedBlockingQueue;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
 
+import org.francis.p2p.worksharing.network.message.CheckpointNetwork;
+import org.francis.p2p.worksharing.network.message.Incumbent;
 import org.francis.p2p.worksharing.network.message.NetworkMessage;
 import org.francis.p2p.worksharing.network.message.ResultMessage;
 import org.francis.p2p.worksharing.network.message.ShutDownNetwork;
+import org.francis.p2p.worksharing.network.message.SolutionBatch;
 
 public class SMPMessageManager {
     
-    private final Map<SMPWorkerId,LinkedBlockingQueue<NetworkMessage>> messageQueues;
+    public static final int DEFAULT_SOLUTION_CAPACITY = 64;
+    
+    private static final long CLOSE_CHECK = 10; // How often, in millis, a blocked solution sender or receiver checks for shut down
+    private static final NetworkMessage FAILED = new ShutDownNetwork(); // Queued in place of a result which will never arrive
+    
+    private final SMPMailbox[] messageQueues; // Indexed by worker id
     private final LinkedBlockingQueue<NetworkMessage> resultQueue;
+    private final ArrayBlockingQueue<SolutionBatch> solutionQueue;
+    private volatile boolean solutionsClosed; // Once the network has shut down no more solutions will be sent
+    private final AtomicReference<Incumbent> incumbent; // The best solution any of our workers has heard of
+    private volatile RuntimeException failure; // Why the network failed, if it did
     
     public SMPMessageManager(SMPWorkerId[] workers) {
-        messageQueues = new HashMap<SMPWorkerId,LinkedBlockingQueue<NetworkMessage>>();
-        for (SMPWorkerId worker : workers) {
-            messageQueues.put(worker, new LinkedBlockingQueue<NetworkMessage>());
+        this(workers.length, workers);
+    }
+    
+    /**
+     * Creates mailboxes only for the local workers, for message managers which pass the messages of the other
+     * workers in the network on to where they are hosted.
+     */
+    protected SMPMessageManager(int workerCount, SMPWorkerId[] localWorkers) {
+        messageQueues = new SMPMailbox[workerCount];
+        for (SMPWorkerId worker : localWorkers) {
+            int id = worker.getId();
+            if (id < 0 || id >= workerCount) throw new IllegalArgumentException("worker ids must run from 0 to one less than the number of workers, found "+id);
+            if (messageQueues[id] != null) throw new IllegalArgumentException("worker "+id+" has been registered twice.");
+            messageQueues[id] = new SMPMailbox();
         }
         resultQueue = new LinkedBlockingQueue<NetworkMessage>();
+        solutionQueue = new ArrayBlockingQueue<SolutionBatch>(DEFAULT_SOLUTION_CAPACITY);
+        incumbent = new AtomicReference<Incumbent>();
+    }
+    
+    public int workerCount() {
+        return messageQueues.length;
     }
     
     public void sendResult(ResultMessage result) {
@@ -30,9 +59,13 @@ public class SMPMessageManager {
         }
     }
     
+    /**
+     * Waits for the result of the network. Throws a RuntimeException, caused by what went wrong, if the network failed
+     * before its result arrived.
+     */
     public ResultMessage receiveResult() {
         try {
-            return (ResultMessage)resultQueue.take();
+            return result(resultQueue.take());
         } catch (InterruptedException e) {
             throw new RuntimeException(e); // Right now there is no reason this should be interrupted
         }
@@ -40,17 +73,84 @@ public class SMPMessageManager {
     
     public ResultMessage receiveResult(long timeout) {
         try {
-            return (ResultMessage)resultQueue.poll(timeout, TimeUnit.MILLISECONDS);
+            return result(resultQueue.poll(timeout, TimeUnit.MILLISECONDS));
         }
         catch (InterruptedException e) {
             throw new RuntimeException(e);
         }
     }
     
+    private ResultMessage result(NetworkMessage msg) {
+        if (msg != FAILED) return (ResultMessage)msg;
+        resultQueue.add(FAILED); // Every later receive fails too
+        throw failure;
+    }
+    
+    /**
+     * Shuts down only the workers of this JVM because the network can no longer reach its result, for instance when another
+     * JVM hosting some of its workers has gone away. Any result which has already arrived is still received, after that
+     * receiveResult throws a RuntimeException with the given message and cause. Only the first failure is recorded.
+     */
+    protected synchronized void failNetwork(String message, Throwable cause) {
+        if (failure != null) return;
+        failure = new RuntimeException(message, cause);
+        shutDownWorkers();
+        resultQueue.add(FAILED);
+    }
+    
+    /**
+     * Adds a batch of solutions to the solution channel, which holds DEFAULT_SOLUTION_CAPACITY batches. A worker sending
+     * to a full channel waits until the batches are received, or the network shuts down, when its batch is dropped.
+     */
+    public void sendSolutions(SolutionBatch batch) {
+        try {
+            while (!solutionsClosed) {
+                if (solutionQueue.offer(batch, CLOSE_CHECK, TimeUnit.MILLISECONDS)) return;
+            }
+        } catch (InterruptedException e) {
+            throw new RuntimeException(e); // Right now there is no reason this should be interrupted
+        }
+    }
+    
+    /**
+     * Waits for the next batch of solutions found by the workers of this JVM. Returns null once the network has shut
+     * down and every batch has been received.
+     */
+    public SolutionBatch receiveSolutions() {
+        try {
+            while (true) {
+                SolutionBatch batch = solutionQueue.poll(CLOSE_CHECK, TimeUnit.MILLISECONDS);
+                if (batch != null) return batch;
+                if (solutionsClosed && solutionQueue.isEmpty()) return null;
+            }
+        } catch (InterruptedException e) {
+            throw new RuntimeException(e); // Right now there is no reason this should be interrupted
+        }
+    }
+    
+    /**
+     * Replaces the incumbent shared by every worker of this JVM with candidate, if candidate is better. Returns true if
+     * it was replaced.
+     */
+    public boolean publishIncumbent(Incumbent candidate) {
+        while (true) {
+            Incumbent current = incumbent.get();
+            if (!candidate.isBetterThan(current)) return false;
+            if (incumbent.compareAndSet(current, candidate)) return true;
+        }
+    }
+    
+    /**
+     * The best solution any worker of this JVM has found or heard of, or null if there isn't one.
+     */
+    public Incumbent incumbent() {
+        return incumbent.get();
+    }
+    
     public ResultMessage receiveResultOrShutDown(long timeout) {
         ResultMessage result = null;
         try {
-            result = (ResultMessage)resultQueue.poll(timeout, TimeUnit.MILLISECONDS);
+            result = result(resultQueue.poll(timeout, TimeUnit.MILLISECONDS));
         }
         catch (InterruptedException e) {
             this.shutDownNetwork();
@@ -61,24 +161,48 @@ public class SMPMessageManager {
     }
     
     public void shutDownNetwork() {
+        shutDownWorkers();
+    }
+    
+    // Only the workers of this JVM, which subclasses spanning several JVMs override shutDownNetwork to go beyond
+    private void shutDownWorkers() {
+        solutionsClosed = true;
         ShutDownNetwork msg = new ShutDownNetwork();
-        for (SMPWorkerId worker : messageQueues.keySet()) {
-            send(worker,msg);
+        for (SMPMailbox queue : messageQueues) {
+            if (queue != null) queue.send(msg);
+        }
+    }
+    
+    /**
+     * Asks every worker to write its remaining work to a checkpoint in directory, after which the network shuts down.
+     */
+    public void checkpointNetwork(String directory) {
+        CheckpointNetwork msg = new CheckpointNetwork(directory);
+        for (SMPMailbox queue : messageQueues) {
+            if (queue != null) queue.send(msg);
         }
     }
     
     public void send(SMPWorkerId worker, NetworkMessage msg) {
-        LinkedBlockingQueue<NetworkMessage> queue = retrieveQueue(worker);
-        queue.offer(msg);
+        SMPMailbox queue = retrieveQueue(worker);
+        queue.send(msg);
     }
     
     public NetworkMessage nonblockingReceive(SMPWorkerId worker) {
-        LinkedBlockingQueue<NetworkMessage> queue = retrieveQueue(worker);
+        SMPMailbox queue = retrieveQueue(worker);
         return queue.poll();
     }
     
+    /**
+     * Moves up to messages.length waiting messages into messages, returning how many were moved.
+     */
+    public int nonblockingReceive(SMPWorkerId worker, NetworkMessage[] messages) {
+        SMPMailbox queue = retrieveQueue(worker);
+        return queue.drainTo(messages);
+    }
+    
     public NetworkMessage blockingReceive(SMPWorkerId worker) {
-        LinkedBlockingQueue<NetworkMessage> queue = retrieveQueue(worker);
+        SMPMailbox queue = retrieveQueue(worker);
         try {
             return queue.take();
         } catch (InterruptedException e) {
@@ -87,7 +211,7 @@ public class SMPMessageManager {
     }
     
     public NetworkMessage timedReceive(SMPWorkerId worker, long timeout) {
-        LinkedBlockingQueue<NetworkMessage> queue = retrieveQueue(worker);
+        SMPMailbox queue = retrieveQueue(worker);
         try {
             return queue.poll(timeout, TimeUnit.MILLISECONDS);
         } catch (InterruptedException e) {
@@ -95,9 +219,9 @@ public class SMPMessageManager {
         }
     }
 
-    private LinkedBlockingQueue<NetworkMessage> retrieveQueue(SMPWorkerId worker) {
-        LinkedBlockingQueue<NetworkMessage> queue = messageQueues.get(worker);
-        if (queue == null) throw new IllegalArgumentException("worker must be previously registered with this SMPMessageManager.");
-        return queue;
+    private SMPMailbox retrieveQueue(SMPWorkerId worker) {
+        int id = worker.getId();
+        if (id < 0 || id >= messageQueues.length || messageQueues[id] == null) throw new IllegalArgumentException("worker must be previously registered with this SMPMessageManager.");
+        return messageQueues[id];
     }
 }
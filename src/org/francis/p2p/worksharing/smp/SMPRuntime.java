@@ -0,0 +1,337 @@
+package org.francis.p2p.worksharing.smp;
+
+import java.io.File;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.BiConsumer;
+
+import org.francis.p2p.worksharing.network.ExpandingWorkSharer;
+import org.francis.p2p.worksharing.network.NetworkManager;
+import org.francis.p2p.worksharing.network.NetworkManager.HibernationMode;
+import org.francis.p2p.worksharing.network.NetworkManager.RequestStrategy;
+import org.francis.p2p.worksharing.network.NetworkManager.SolutionMode;
+import org.francis.p2p.worksharing.network.NetworkManager.SplitPolicy;
+import org.francis.p2p.worksharing.network.NetworkManager.TerminationMode;
+import org.francis.p2p.worksharing.network.codec.JavaWorkSerializer;
+import org.francis.p2p.worksharing.network.codec.WorkSerializer;
+import org.francis.p2p.worksharing.network.message.Incumbent;
+import org.francis.p2p.worksharing.network.message.ResultMessage;
+import org.francis.p2p.worksharing.network.message.SolutionBatch;
+
+/**
+ * Runs a search over a network of workers in this JVM. It creates the message manager, arranges the workers by a
+ * Topology, creates each worker's WorkSharer from a factory and runs each worker's search loop on its own thread,
+ * handing back the result as a future.
+ *
+ * Workers may run on platform threads or, on a JVM which has them, on virtual threads. Virtual threads make it cheap to
+ * run many more workers than there are cores, which suits searches whose expansions block on I/O. A worker only gives up
+ * its carrier thread when it blocks, so for searches which are purely CPU bound platform threads are the better
+ * choice.
+ *
+ * The settings must be made before start is called, and a runtime may only be started once.
+ */
+public class SMPRuntime {
+
+    public enum ThreadMode {
+        PLATFORM, VIRTUAL
+    };
+
+    /**
+     * PEER_TO_PEER runs the work sharing protocol between the workers, exactly as it would run across JVMs. FORK_JOIN
+     * shares work through the work stealing of a ForkJoinPool with workerCount threads, which has far less overhead
+     * but only works inside one JVM. The topology, request strategy, hibernation mode, logging and thread mode are
+     * ignored by FORK_JOIN.
+     */
+    public enum ExecutionMode {
+        PEER_TO_PEER, FORK_JOIN
+    };
+
+    private final int workerCount;
+    private final WorkSharerFactory factory;
+    private Topology topology;
+    private ThreadMode threadMode;
+    private ExecutionMode executionMode;
+    private RequestStrategy requestStrategy;
+    private int maxAttempts;
+    private int workSharingThreshold;
+    private HibernationMode hibernationMode;
+    private TerminationMode terminationMode;
+    private int lowWatermark;
+    private SplitPolicy splitPolicy;
+    private int fixedSplit;
+    private SolutionMode solutionMode;
+    private int solutionBatchSize;
+    private String logFilePath;
+    private boolean jmxEnabled;
+    private WorkSerializer checkpointSerializer;
+    private Incumbent incumbent;
+    private boolean started;
+    private SMPMessageManager messageManager; // Only set once a PEER_TO_PEER network has started
+
+    public SMPRuntime(int workerCount, WorkSharerFactory factory) {
+        if (workerCount < 1) throw new IllegalArgumentException("A network needs at least one worker, got " + workerCount);
+        this.workerCount = workerCount;
+        this.factory = factory;
+        this.topology = new HypercubeTopology();
+        this.threadMode = ThreadMode.PLATFORM;
+        this.executionMode = ExecutionMode.PEER_TO_PEER;
+        this.requestStrategy = RequestStrategy.RING;
+        this.maxAttempts = 0;
+        this.workSharingThreshold = 2;
+        this.hibernationMode = HibernationMode.TIMED_BACKOFF;
+        this.terminationMode = TerminationMode.COUNTING;
+        this.solutionMode = SolutionMode.FIRST;
+        this.splitPolicy = SplitPolicy.DONOR;
+        this.logFilePath = null;
+        this.checkpointSerializer = new JavaWorkSerializer();
+    }
+
+    public SMPRuntime setTopology(Topology topology) {
+        this.topology = topology;
+        return this;
+    }
+
+    /**
+     * @throws UnsupportedOperationException if VIRTUAL is asked for on a JVM without virtual threads
+     */
+    public SMPRuntime setThreadMode(ThreadMode threadMode) {
+        if (threadMode == ThreadMode.VIRTUAL) virtualThreadBuilder(); // Fail now rather than at start
+        this.threadMode = threadMode;
+        return this;
+    }
+
+    public SMPRuntime setExecutionMode(ExecutionMode executionMode) {
+        this.executionMode = executionMode;
+        return this;
+    }
+
+    /**
+     * @param maxAttempts the number of victims a RANDOM_VICTIM request visits, ignored for RING requests
+     */
+    public SMPRuntime setRequestStrategy(RequestStrategy requestStrategy, int maxAttempts) {
+        this.requestStrategy = requestStrategy;
+        this.maxAttempts = maxAttempts;
+        return this;
+    }
+
+    public SMPRuntime setWorkSharingThreshold(int workSharingThreshold) {
+        this.workSharingThreshold = workSharingThreshold;
+        return this;
+    }
+
+    public SMPRuntime setHibernationMode(HibernationMode hibernationMode) {
+        this.hibernationMode = hibernationMode;
+        return this;
+    }
+
+    public SMPRuntime setTerminationMode(TerminationMode terminationMode) {
+        this.terminationMode = terminationMode;
+        return this;
+    }
+
+    /**
+     * In ALL mode every WorkSharer must be an EnumeratingWorkSharer, the solutions are read with receiveSolutions while
+     * the network runs and the future completes once the whole search space has been explored. In OPTIMUM mode every
+     * WorkSharer must be an OptimisingWorkSharer, and the result is the solution with the lowest bound. Only the
+     * PEER_TO_PEER execution mode can find all solutions or the optimum.
+     */
+    public SMPRuntime setSolutionMode(SolutionMode solutionMode, int batchSize) {
+        this.solutionMode = solutionMode;
+        this.solutionBatchSize = batchSize;
+        return this;
+    }
+
+    /**
+     * Seeds an OPTIMUM search with a solution found earlier, such as the incumbent of the Checkpoint it resumes, so the
+     * workers prune against its bound from the start. The result is incumbent unless a better solution is found.
+     */
+    public SMPRuntime setIncumbent(Incumbent incumbent) {
+        this.incumbent = incumbent;
+        return this;
+    }
+
+    /**
+     * Waits for the next batch of solutions found in ALL mode. Returns null once the network has stopped and every
+     * batch has been received. The workers wait for the batches to be received once the channel is full.
+     */
+    public SolutionBatch receiveSolutions() {
+        SMPMessageManager network;
+        synchronized (this) {
+            network = messageManager;
+        }
+        if (network == null) throw new IllegalStateException("Solutions can only be received from a started PEER_TO_PEER runtime.");
+        return network.receiveSolutions(); // Not holding the lock, as this may wait for a long time
+    }
+
+    /**
+     * @param lowWatermark used by workers whose WorkSharer is a PrefetchingWorkSharer, zero turns prefetching off
+     */
+    public SMPRuntime setLowWatermark(int lowWatermark) {
+        this.lowWatermark = lowWatermark;
+        return this;
+    }
+
+    /**
+     * The policies other than DONOR only apply to workers whose WorkSharer is a SplittingWorkSharer, and only in the
+     * PEER_TO_PEER execution mode.
+     *
+     * @param fixedUnits the number of units given away by the FIXED policy, ignored by the others
+     */
+    public SMPRuntime setSplitPolicy(SplitPolicy splitPolicy, int fixedUnits) {
+        this.splitPolicy = splitPolicy;
+        this.fixedSplit = fixedUnits;
+        return this;
+    }
+
+    /**
+     * @param logFilePath the directory each worker's NetworkManager logs to, or null for no logging
+     */
+    public SMPRuntime setLogFilePath(String logFilePath) {
+        this.logFilePath = logFilePath;
+        return this;
+    }
+
+    /**
+     * Registers the metrics of every worker with the platform MBean server when the runtime starts, each is
+     * unregistered once its worker stops. Only the PEER_TO_PEER execution mode has metrics.
+     */
+    public SMPRuntime setJmxEnabled(boolean jmxEnabled) {
+        this.jmxEnabled = jmxEnabled;
+        return this;
+    }
+
+    /**
+     * @param checkpointSerializer writes the work of each worker to a checkpoint, Java serialisation by default
+     */
+    public SMPRuntime setCheckpointSerializer(WorkSerializer checkpointSerializer) {
+        this.checkpointSerializer = checkpointSerializer;
+        return this;
+    }
+
+    /**
+     * Asks every worker to stop and write its remaining work to a checkpoint file in directory. The future returned by
+     * start completes once all the work has been written. Unless a solution was found first, or no work was left to
+     * write, its ResultMessage isn't proven. The result is false, or in OPTIMUM mode the best solution found so far,
+     * which is also checkpointed. Every WorkSharer must be a CheckpointableWorkSharer, and only the PEER_TO_PEER
+     * execution mode can be checkpointed.
+     */
+    public synchronized void checkpoint(File directory) {
+        if (messageManager == null) throw new IllegalStateException("Only a started PEER_TO_PEER runtime can be checkpointed.");
+        messageManager.checkpointNetwork(directory.getPath());
+    }
+
+    /**
+     * Starts every worker and returns at once. The future completes with the result once every worker has stopped, the
+     * result is the WorkSharer's success message, or false if the search space was exhausted, in either execution mode.
+     * In OPTIMUM mode an exhausted search space instead gives the best solution found, if there was one.
+     * Cancelling the future shuts the network down. If a worker throws the network is shut down and the future
+     * completes exceptionally.
+     */
+    public synchronized CompletableFuture<ResultMessage> start() {
+        if (started) throw new IllegalStateException("This runtime has already been started.");
+        if (executionMode == ExecutionMode.FORK_JOIN && solutionMode != SolutionMode.FIRST) throw new UnsupportedOperationException("The FORK_JOIN execution mode only finds the first solution.");
+        started = true;
+        if (executionMode == ExecutionMode.FORK_JOIN) return new ForkJoinSearch(workerCount, factory, workSharingThreshold).start();
+        SMPWorkerId[] ids = new SMPWorkerId[workerCount];
+        for (int i = 0; i < workerCount; i++) {
+            ids[i] = new SMPWorkerId(i);
+        }
+        final SMPMessageManager messageManager = new SMPMessageManager(ids);
+        this.messageManager = messageManager;
+        if (incumbent != null) messageManager.publishIncumbent(incumbent);
+        final CompletableFuture<ResultMessage> result = new CompletableFuture<ResultMessage>();
+        final AtomicInteger running = new AtomicInteger(workerCount);
+        Thread[] threads = new Thread[workerCount];
+        for (int i = 0; i < workerCount; i++) {
+            SMPCommunicator comm = new SMPCommunicator(messageManager, topology, ids[i], requestStrategy, maxAttempts);
+            NetworkManager manager = new NetworkManager(comm, workerCount, workSharingThreshold, logFilePath);
+            manager.setHibernationMode(hibernationMode);
+            manager.setTerminationMode(terminationMode);
+            manager.setLowWatermark(lowWatermark);
+            manager.setSplitPolicy(splitPolicy, fixedSplit);
+            manager.setSolutionMode(solutionMode, solutionBatchSize);
+            manager.setCheckpointSerializer(checkpointSerializer);
+            manager.setJmxEnabled(jmxEnabled);
+            ExpandingWorkSharer workSharer = factory.create(i, workerCount);
+            threads[i] = newThread(new Worker(manager, workSharer, messageManager, result, running), "worker-" + i);
+        }
+        result.whenComplete(new BiConsumer<ResultMessage, Throwable>() {
+            @Override
+            public void accept(ResultMessage message, Throwable failure) {
+                if (result.isCancelled()) messageManager.shutDownNetwork();
+            }
+        });
+        for (Thread thread : threads) {
+            thread.start();
+        }
+        return result;
+    }
+
+    private Thread newThread(Runnable worker, String name) {
+        if (threadMode == ThreadMode.PLATFORM) return new Thread(worker, name);
+        try {
+            Object builder = virtualThreadBuilder();
+            Class<?> builderClass = Class.forName("java.lang.Thread$Builder");
+            builder = builderClass.getMethod("name", String.class).invoke(builder, name);
+            return (Thread) builderClass.getMethod("unstarted", Runnable.class).invoke(builder, worker);
+        } catch (ReflectiveOperationException e) {
+            throw new UnsupportedOperationException("Unable to create a virtual thread.", e);
+        }
+    }
+
+    // Virtual threads are found reflectively so the library still runs on JVMs which don't have them
+    private static Object virtualThreadBuilder() {
+        try {
+            Method ofVirtual = Thread.class.getMethod("ofVirtual");
+            return ofVirtual.invoke(null);
+        } catch (NoSuchMethodException e) {
+            throw new UnsupportedOperationException("This JVM does not support virtual threads.", e);
+        } catch (InvocationTargetException e) {
+            // Preview releases throw when preview features are not enabled
+            throw new UnsupportedOperationException("This JVM does not support virtual threads.", e.getCause());
+        } catch (IllegalAccessException e) {
+            throw new UnsupportedOperationException("This JVM does not support virtual threads.", e);
+        }
+    }
+
+    private static class Worker implements Runnable {
+
+        private final NetworkManager manager;
+        private final ExpandingWorkSharer workSharer;
+        private final SMPMessageManager messageManager;
+        private final CompletableFuture<ResultMessage> result;
+        private final AtomicInteger running;
+
+        Worker(NetworkManager manager, ExpandingWorkSharer workSharer, SMPMessageManager messageManager, CompletableFuture<ResultMessage> result, AtomicInteger running) {
+            this.manager = manager;
+            this.workSharer = workSharer;
+            this.messageManager = messageManager;
+            this.result = result;
+            this.running = running;
+        }
+
+        @Override
+        public void run() {
+            try {
+                while (manager.manageNetwork(workSharer)) {
+                    workSharer.expand();
+                }
+            } catch (Throwable t) {
+                result.completeExceptionally(t);
+                messageManager.shutDownNetwork(); // Every other worker would otherwise wait for us forever
+                manager.setJmxEnabled(false); // We never reached our own shut down, which would have unregistered them
+            } finally {
+                // The result is sent before the network is shut down, so it is waiting once the last worker stops
+                if (running.decrementAndGet() == 0) {
+                    ResultMessage message = messageManager.receiveResult(0);
+                    if (message != null)
+                        result.complete(message);
+                    else
+                        result.completeExceptionally(new IllegalStateException("The network shut down without a result."));
+                }
+            }
+        }
+    }
+}
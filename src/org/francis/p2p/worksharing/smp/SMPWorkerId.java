@@ -1,8 +1,17 @@
 package org.francis.p2p.worksharing.smp;
 
+import java.io.Serializable;
+
 import org.francis.p2p.worksharing.network.WorkerId;
 
-public class SMPWorkerId implements WorkerId {
+/**
+ * Identifies a worker inside a single JVM, or across JVMs connected by an NIOMessageManager. The ids of the workers
+ * sharing an SMPMessageManager must be dense, running from 0 up to the number of workers, as the id is used directly as
+ * the index of the worker's mailbox.
+ */
+public class SMPWorkerId implements WorkerId, Serializable {
+
+    private static final long serialVersionUID = -6348012746552409816L;
 
     private final int id;
     
@@ -10,6 +19,22 @@ public class SMPWorkerId implements WorkerId {
         this.id = id;
     }
     
+    public int getId() {
+        return id;
+    }
+    
+    @Override
+    public boolean equals(Object obj) {
+        if (this == obj) return true;
+        if (!(obj instanceof SMPWorkerId)) return false;
+        return id == ((SMPWorkerId) obj).id;
+    }
+    
+    @Override
+    public int hashCode() {
+        return id;
+    }
+    
     @Override
     public String toString() {
         return Integer.toString(id);
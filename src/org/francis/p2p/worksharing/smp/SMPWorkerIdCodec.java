@@ -0,0 +1,20 @@
+package org.francis.p2p.worksharing.smp;
+
+import org.francis.p2p.worksharing.network.WorkerId;
+import org.francis.p2p.worksharing.network.codec.WorkerIdCodec;
+
+/**
+ * Encodes an SMPWorkerId as its id, which is already a small non-negative int.
+ */
+public class SMPWorkerIdCodec implements WorkerIdCodec {
+
+    @Override
+    public int toIndex(WorkerId worker) {
+        return ((SMPWorkerId) worker).getId();
+    }
+
+    @Override
+    public WorkerId fromIndex(int index) {
+        return new SMPWorkerId(index);
+    }
+}
@@ -0,0 +1,227 @@
+package org.francis.p2p.worksharing.smp;
+
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.function.BiConsumer;
+
+import org.francis.p2p.worksharing.network.NetworkManager;
+import org.francis.p2p.worksharing.network.NetworkManager.HibernationMode;
+import org.francis.p2p.worksharing.network.NetworkManager.RequestStrategy;
+import org.francis.p2p.worksharing.network.NetworkManager.TerminationMode;
+import org.francis.p2p.worksharing.network.message.ResultMessage;
+import org.francis.p2p.worksharing.smp.JobMultiplexer.Job;
+
+/**
+ * A long lived network of workers in this JVM which runs any number of searches, or jobs, one after another or side by
+ * side. An SMPRuntime pays for its threads, message manager and log files with every search, which dominates the time
+ * taken by small searches. The workers of a pool stay up between jobs, and as every job's work is shared over the same
+ * network, with each piece of work carrying the id of its job, a worker which runs out of work in one job steals work
+ * from any other. Each job completes through its own future, with its WorkSharer's success message or false once its
+ * search space is exhausted, just as the future of an SMPRuntime does.
+ *
+ * The network itself only winds down once every job's work is gone, through its usual termination detection, and is
+ * set up again on the same threads when the next job is submitted. Only the threads, and each worker's share of the
+ * unfinished jobs, are kept from one run of the network to the next. Every run gets a new message manager and new
+ * NetworkManagers, as a NetworkManager can't be restarted once its network has shut down, but these are small objects
+ * with no log files and cost little next to starting threads. A job submitted while the network is running is taken by
+ * the next worker to finish an expansion, and its work shared out from there. Jobs only find their first
+ * solution, the solution modes and checkpointing of an SMPRuntime are not available.
+ *
+ * The settings must be made before start is called, and close must be called to stop the workers.
+ */
+public class SMPWorkerPool {
+
+    private final int workerCount;
+    private Topology topology;
+    private RequestStrategy requestStrategy;
+    private int maxAttempts;
+    private int workSharingThreshold;
+    private HibernationMode hibernationMode;
+    private TerminationMode terminationMode;
+    private final Map<Integer, Job> jobs; // Every unfinished job, by id
+    private final Queue<Job> submitted; // Jobs whose seed hasn't yet been taken by a worker
+    private JobMultiplexer[] multiplexers; // Each worker's share of every job, kept between runs of the network
+    private NetworkManager[] managers; // Of the current run of the network
+    private SMPMessageManager messageManager; // Null while the network isn't running
+    private int run; // Counts the runs of the network, a worker waits for the next one once its network shuts down
+    private int running; // The workers still in the current run
+    private int nextJobId;
+    private boolean started;
+    private boolean closed;
+
+    public SMPWorkerPool(int workerCount) {
+        if (workerCount < 1) throw new IllegalArgumentException("A network needs at least one worker, got " + workerCount);
+        this.workerCount = workerCount;
+        this.topology = new HypercubeTopology();
+        this.requestStrategy = RequestStrategy.RING;
+        this.maxAttempts = 0;
+        this.workSharingThreshold = 2;
+        this.hibernationMode = HibernationMode.TIMED_BACKOFF;
+        this.terminationMode = TerminationMode.COUNTING;
+        this.jobs = new ConcurrentHashMap<Integer, Job>();
+        this.submitted = new ConcurrentLinkedQueue<Job>();
+    }
+
+    public SMPWorkerPool setTopology(Topology topology) {
+        this.topology = topology;
+        return this;
+    }
+
+    /**
+     * @param maxAttempts the number of victims a RANDOM_VICTIM request visits, ignored for RING requests
+     */
+    public SMPWorkerPool setRequestStrategy(RequestStrategy requestStrategy, int maxAttempts) {
+        this.requestStrategy = requestStrategy;
+        this.maxAttempts = maxAttempts;
+        return this;
+    }
+
+    public SMPWorkerPool setWorkSharingThreshold(int workSharingThreshold) {
+        this.workSharingThreshold = workSharingThreshold;
+        return this;
+    }
+
+    public SMPWorkerPool setHibernationMode(HibernationMode hibernationMode) {
+        this.hibernationMode = hibernationMode;
+        return this;
+    }
+
+    public SMPWorkerPool setTerminationMode(TerminationMode terminationMode) {
+        this.terminationMode = terminationMode;
+        return this;
+    }
+
+    /**
+     * Starts the workers, which wait for the first job to be submitted.
+     */
+    public synchronized SMPWorkerPool start() {
+        if (started) throw new IllegalStateException("This pool has already been started.");
+        started = true;
+        multiplexers = new JobMultiplexer[workerCount];
+        managers = new NetworkManager[workerCount];
+        for (int i = 0; i < workerCount; i++) {
+            multiplexers[i] = new JobMultiplexer(workerCount, jobs, submitted);
+        }
+        for (int i = 0; i < workerCount; i++) {
+            new Thread(new Worker(i), "pool-worker-" + i).start();
+        }
+        return this;
+    }
+
+    /**
+     * Submits a search, the factory is used just as an SMPRuntime uses it, except that the WorkSharers of workers other
+     * than 0 are only created once a worker is given some of the job's work. Cancelling the future stops the job.
+     */
+    public synchronized CompletableFuture<ResultMessage> submit(WorkSharerFactory factory) {
+        if (!started || closed) throw new IllegalStateException("Jobs can only be submitted to a started pool which hasn't been closed.");
+        final Job job = new Job(nextJobId, factory, factory.create(0, workerCount));
+        nextJobId = (nextJobId + 1) & Integer.MAX_VALUE;
+        if (job.seed.needsWork()) {
+            job.result.complete(new ResultMessage(false));
+            return job.result;
+        }
+        jobs.put(Integer.valueOf(job.id), job);
+        job.result.whenComplete(new BiConsumer<ResultMessage, Throwable>() {
+            @Override
+            public void accept(ResultMessage message, Throwable failure) {
+                jobs.remove(Integer.valueOf(job.id)); // Its work is dropped by the workers as they come across it
+            }
+        });
+        submitted.add(job);
+        if (messageManager == null) startRun();
+        return job.result;
+    }
+
+    /**
+     * Stops the workers once the network has shut down. Every job which hasn't finished completes exceptionally.
+     */
+    public synchronized void close() {
+        if (closed) return;
+        closed = true;
+        if (messageManager != null) messageManager.shutDownNetwork();
+        failJobs(new IllegalStateException("The pool was closed before the job finished."));
+        notifyAll();
+    }
+
+    private void failJobs(Throwable cause) {
+        for (Job job : jobs.values()) {
+            job.result.completeExceptionally(cause);
+        }
+    }
+
+    // The threads wait in awaitRun for this, everything else about the network is new
+    private void startRun() {
+        SMPWorkerId[] ids = new SMPWorkerId[workerCount];
+        for (int i = 0; i < workerCount; i++) {
+            ids[i] = new SMPWorkerId(i);
+        }
+        messageManager = new SMPMessageManager(ids);
+        for (int i = 0; i < workerCount; i++) {
+            SMPCommunicator comm = new SMPCommunicator(messageManager, topology, ids[i], requestStrategy, maxAttempts);
+            managers[i] = new NetworkManager(comm, workerCount, workSharingThreshold, null);
+            managers[i].setHibernationMode(hibernationMode);
+            managers[i].setTerminationMode(terminationMode);
+        }
+        running = workerCount;
+        run++;
+        notifyAll();
+    }
+
+    private synchronized NetworkManager awaitRun(int worker, int lastRun) throws InterruptedException {
+        while (run == lastRun && !closed) {
+            wait();
+        }
+        return run == lastRun ? null : managers[worker];
+    }
+
+    // A job submitted once every worker had gone into hibernation is picked up by another run
+    private synchronized void workerStopped() {
+        if (--running > 0) return;
+        messageManager = null;
+        if (!closed && !submitted.isEmpty()) startRun();
+    }
+
+    private class Worker implements Runnable {
+
+        private final int worker;
+
+        Worker(int worker) {
+            this.worker = worker;
+        }
+
+        @Override
+        public void run() {
+            JobMultiplexer multiplexer = multiplexers[worker];
+            int lastRun = 0;
+            while (true) {
+                NetworkManager manager;
+                try {
+                    manager = awaitRun(worker, lastRun);
+                } catch (InterruptedException e) {
+                    throw new RuntimeException(e); // Right now there is no reason this should be interrupted
+                }
+                if (manager == null) return;
+                lastRun++;
+                try {
+                    if (multiplexer.needsWork()) multiplexer.takeSubmittedJob();
+                    while (manager.manageNetwork(multiplexer)) {
+                        multiplexer.expand();
+                    }
+                } catch (Throwable t) {
+                    shutDownAfterFailure(t);
+                } finally {
+                    workerStopped();
+                }
+            }
+        }
+    }
+
+    // Every other worker would otherwise wait for us forever
+    private synchronized void shutDownAfterFailure(Throwable cause) {
+        failJobs(cause);
+        messageManager.shutDownNetwork();
+    }
+}
@@ -0,0 +1,17 @@
+package org.francis.p2p.worksharing.smp;
+
+/**
+ * The spanning tree that an SMPCommunicator passes messages along. Broadcasts are flooded along the edges of the tree,
+ * so they reach every worker in as many hops as the tree is deep. Work requests walk around the tree, visiting every
+ * worker, before returning to the requester as a poison request.
+ *
+ * Both must travel the same edges for the NetworkChange counting to work. A worker only announces that it has run out
+ * of work after its request has walked the whole tree, behind any announcements made by the workers it passed.
+ */
+public interface Topology {
+
+    /**
+     * The workers adjacent to worker in the tree. The same worker must always get its neighbours in the same order.
+     */
+    public abstract int[] neighbours(int worker, int workerCount);
+}
@@ -0,0 +1,21 @@
+package org.francis.p2p.worksharing.smp;
+
+import org.francis.p2p.worksharing.network.ExpandingWorkSharer;
+
+/**
+ * Creates the WorkSharer of each worker run by an SMPRuntime.
+ */
+public interface WorkSharerFactory {
+
+    /**
+     * Worker 0 must be given the whole problem, every other worker must start without work and will be given work by
+     * the network. A search resumed from a Checkpoint instead gives every worker its share, Checkpoint.workFor.
+     *
+     * In the PEER_TO_PEER execution mode every worker from 0 to workerCount - 1 is created once. In the FORK_JOIN mode
+     * a worker is created for each pool thread the first time it needs one, so there may be fewer than workerCount of
+     * them, or more, as the pool can add threads to make up for blocked ones. Their numbers are never repeated but can
+     * reach or exceed workerCount. As some workers may never be created, a search resumed from a Checkpoint must run
+     * PEER_TO_PEER.
+     */
+    public abstract ExpandingWorkSharer create(int worker, int workerCount);
+}